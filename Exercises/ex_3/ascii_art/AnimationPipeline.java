@@ -0,0 +1,478 @@
+package ascii_art;
+
+import ascii_art.exceptions.CustomException;
+import ascii_art.exceptions.ResolutionBoundaryException;
+import ascii_art.exceptions.ResolutionFormatException;
+import ascii_output.AsciiOutput;
+import ascii_output.TextFileAsciiOutput;
+import image.Image;
+import image.ImageManipulator;
+import image.RasterCache;
+import image.StripedImageReader;
+import image.TileDeltaTracker;
+import image_char_matching.CharMatcherSnapshot;
+import image_char_matching.GlyphCache;
+import image_char_matching.SubImgCharMatcher;
+import org.w3c.dom.Node;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Converts a sequence of frames to a sequence of ASCII art frames.
+ * Frames are read either from a directory of images, in file name order,
+ * or from a multi-frame image such as an animated GIF.
+ * The conversion is split into four stages, decode, brightness, character
+ * mapping and output, each running on its own thread and connected to the
+ * next by a bounded queue. While one frame is mapped to characters, the
+ * next one is already being decoded, and a slow stage holds back the ones
+ * before it instead of letting frames pile up in memory.
+ * Every frame is written to its own text file, and the throughput of each
+ * stage is reported at the end.
+ * In delta mode, set by the {@value #DELTA_PROPERTY} system property,
+ * only the sub-images whose pixels changed since the previous frame are
+ * measured and mapped again, which suits sequences where most of the
+ * picture is static, such as screen captures. Otherwise every frame is
+ * measured in a single pass over its pixels, without the summed-area
+ * table a still image builds for later resolutions.
+ * Like the shell's, the resolution must leave every sub-image of every
+ * frame at least a pixel wide.
+ * Usage: {@code AnimationPipeline <frames> <outputDir> [resolution] [charset]}
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see AsciiArtAlgorithm
+ */
+public class AnimationPipeline {
+	/**
+	 * The system property that turns on delta mode when set to {@code true}.
+	 */
+	public static final String DELTA_PROPERTY = "ascii.delta";
+	private static final int QUEUE_CAPACITY = 4;
+	private static final String FRAME_FILE_FORMAT = "frame_%05d.txt";
+	private static final String STAGE_REPORT_FORMAT =
+			"%-10s %5d frames, busy %8.1f ms, %8.1f frames per second%n";
+	private static final String TOTAL_REPORT_FORMAT =
+			"Total      %5d frames in %.1f ms, %.1f frames per second%n";
+	private static final String REUSE_REPORT_FORMAT =
+			"Reused     %d of %d sub-images (%.1f%%)%n";
+	private static final double PERCENT = 100;
+	private static final String GIF_METADATA_FORMAT = "javax_imageio_gif_image_1.0";
+	private static final String IMAGE_DESCRIPTOR = "ImageDescriptor";
+	private static final String LEFT_POSITION = "imageLeftPosition";
+	private static final String TOP_POSITION = "imageTopPosition";
+	private static final String UNSUPPORTED_FORMAT_MESSAGE = "Unsupported image format: ";
+	private static final String INVALID_RESOLUTION_MESSAGE = "Resolution must be at least 1: ";
+	private static final String FRAME_TOO_NARROW_FORMAT =
+			"Frame %d is %d pixels wide, less than the resolution %d";
+	private static final String USAGE_MESSAGE =
+			"Usage: AnimationPipeline <frames> <outputDir> [resolution] [charset]";
+	private static final double NANOS_PER_MILLI = 1e6;
+	private static final double MILLIS_PER_SECOND = 1e3;
+	private static final int DEFAULT_RESOLUTION = 64;
+	private static final String DEFAULT_CHARSET = " .:-=+*#%@";
+	private static final int INPUT_ARG = 0;
+	private static final int OUTPUT_DIR_ARG = 1;
+	private static final int RESOLUTION_ARG = 2;
+	private static final int CHARSET_ARG = 3;
+	private static final Frame END_OF_FRAMES = new Frame(-1);
+	private final SubImgCharMatcher charMatcher;
+	private final int resolution;
+	private final Path outputDir;
+	private final boolean deltaMode;
+	private final List<Stage> stages = new ArrayList<>();
+	private long reusedTiles = 0;
+	private long totalTiles = 0;
+
+	/**
+	 * Constructs a pipeline.
+	 * @param charMatcher The matcher used to map brightnesses to characters.
+	 *                    It must not be changed while the pipeline runs.
+	 * @param resolution  The number of characters in every row.
+	 * @param outputDir   The directory frame files are written to.
+	 */
+	public AnimationPipeline(SubImgCharMatcher charMatcher, int resolution, Path outputDir) {
+		this(charMatcher, resolution, outputDir, false);
+	}
+
+	/**
+	 * Constructs a pipeline, optionally in delta mode.
+	 * @param charMatcher The matcher used to map brightnesses to characters.
+	 *                    It must not be changed while the pipeline runs.
+	 * @param resolution  The number of characters in every row.
+	 * @param outputDir   The directory frame files are written to.
+	 * @param deltaMode   Whether only the sub-images that changed since the
+	 *                    previous frame are measured and mapped again.
+	 * @throws IllegalArgumentException If the resolution is below 1.
+	 */
+	public AnimationPipeline(SubImgCharMatcher charMatcher, int resolution, Path outputDir,
+							 boolean deltaMode) {
+		if (resolution < 1) {
+			throw new IllegalArgumentException(INVALID_RESOLUTION_MESSAGE + resolution);
+		}
+		this.charMatcher = charMatcher;
+		this.resolution = resolution;
+		this.outputDir = outputDir;
+		this.deltaMode = deltaMode;
+	}
+
+	/**
+	 * Converts every frame of the input, blocking until all frames are written.
+	 * @param input A directory of frames, or a multi-frame image file.
+	 * @throws IOException If a frame cannot be read or written, or is
+	 * narrower than the resolution.
+	 * @throws InterruptedException If interrupted while waiting for the stages.
+	 */
+	public void run(File input) throws IOException, InterruptedException {
+		BlockingQueue<Frame> decoded = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		BlockingQueue<Frame> measured = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		BlockingQueue<Frame> mapped = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		this.stages.clear();
+		this.reusedTiles = 0;
+		this.totalTiles = 0;
+		this.stages.add(new DecodeStage(input, this.resolution, decoded));
+		this.stages.add(new BrightnessStage(decoded, measured));
+		this.stages.add(new CharMappingStage(measured, mapped));
+		this.stages.add(new OutputStage(mapped));
+		List<Thread> threads = new ArrayList<>();
+		long start = System.nanoTime();
+		for (Stage stage : this.stages) {
+			Thread thread = new Thread(stage, stage.name);
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long elapsed = System.nanoTime() - start;
+		for (Stage stage : this.stages) {
+			if (stage.failure instanceof IOException) {
+				throw (IOException) stage.failure;
+			} else if (stage.failure != null) {
+				throw (RuntimeException) stage.failure;
+			}
+		}
+		printReport(elapsed);
+	}
+
+	private void printReport(long elapsedNanos) {
+		for (Stage stage : this.stages) {
+			double busyMillis = stage.busyNanos / NANOS_PER_MILLI;
+			System.out.printf(STAGE_REPORT_FORMAT, stage.name, stage.frames, busyMillis,
+					stage.frames * MILLIS_PER_SECOND / Math.max(busyMillis, Double.MIN_VALUE));
+		}
+		int frames = this.stages.get(this.stages.size() - 1).frames;
+		double elapsedMillis = elapsedNanos / NANOS_PER_MILLI;
+		System.out.printf(TOTAL_REPORT_FORMAT, frames, elapsedMillis,
+				frames * MILLIS_PER_SECOND / elapsedMillis);
+		if (this.deltaMode) {
+			System.out.printf(REUSE_REPORT_FORMAT, this.reusedTiles, this.totalTiles,
+					this.reusedTiles * PERCENT / Math.max(this.totalTiles, 1));
+		}
+	}
+
+	private static final class Frame {
+		private final int index;
+		private Image image;
+		private double[][] brightnesses;
+		private boolean[][] changedTiles;
+		private char[][] chars;
+
+		private Frame(int index) {
+			this.index = index;
+		}
+	}
+
+	/**
+	 * A single thread of the pipeline. Takes frames from its input queue,
+	 * processes them and passes them to its output queue, until the end
+	 * marker arrives. The end marker is always passed on, so the following
+	 * stages stop too. After a failure, frames are still taken but dropped,
+	 * so the stages before never block on a full queue.
+	 */
+	private abstract static class Stage implements Runnable {
+		private final String name;
+		private final BlockingQueue<Frame> input;
+		private final BlockingQueue<Frame> output;
+		private long busyNanos = 0;
+		private int frames = 0;
+		private Exception failure = null;
+
+		private Stage(String name, BlockingQueue<Frame> input, BlockingQueue<Frame> output) {
+			this.name = name;
+			this.input = input;
+			this.output = output;
+		}
+
+		@Override
+		public void run() {
+			try {
+				try {
+					produce();
+				} catch (IOException | RuntimeException e) {
+					this.failure = e;
+				} finally {
+					if (this.output != null) {
+						this.output.put(END_OF_FRAMES);
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		void produce() throws IOException, InterruptedException {
+			for (Frame frame = this.input.take(); frame != END_OF_FRAMES; frame = this.input.take()) {
+				if (this.failure != null) {
+					continue;
+				}
+				long start = System.nanoTime();
+				try {
+					process(frame);
+				} catch (IOException | RuntimeException e) {
+					this.failure = e;
+					continue;
+				}
+				emit(frame, start);
+			}
+		}
+
+		void emit(Frame frame, long startNanos) throws InterruptedException {
+			this.busyNanos += System.nanoTime() - startNanos;
+			this.frames++;
+			if (this.output != null) {
+				this.output.put(frame);
+			}
+		}
+
+		abstract void process(Frame frame) throws IOException;
+	}
+
+	private static final class DecodeStage extends Stage {
+		private final File source;
+		private final int resolution;
+
+		private DecodeStage(File source, int resolution, BlockingQueue<Frame> output) {
+			super("decode", null, output);
+			this.source = source;
+			this.resolution = resolution;
+		}
+
+		@Override
+		void produce() throws IOException, InterruptedException {
+			File[] files = this.source.listFiles(File::isFile);
+			if (files != null) {
+				Arrays.sort(files);
+				for (int i = 0; i < files.length; i++) {
+					long start = System.nanoTime();
+					emit(frame(i, RasterCache.loadImage(files[i].getPath())), start);
+				}
+				return;
+			}
+			decodeMultiFrameImage();
+		}
+
+		private void decodeMultiFrameImage() throws IOException, InterruptedException {
+			try (ImageInputStream stream = ImageIO.createImageInputStream(this.source)) {
+				Iterator<ImageReader> readers = stream == null ? null : ImageIO.getImageReaders(stream);
+				if (readers == null || !readers.hasNext()) {
+					throw new IOException(UNSUPPORTED_FORMAT_MESSAGE + this.source);
+				}
+				ImageReader reader = readers.next();
+				reader.setInput(stream, false);
+				try {
+					BufferedImage canvas = null;
+					int frameCount = reader.getNumImages(true);
+					for (int i = 0; i < frameCount; i++) {
+						long start = System.nanoTime();
+						BufferedImage frameImage = reader.read(i);
+						if (canvas == null) {
+							canvas = new BufferedImage(reader.getWidth(0), reader.getHeight(0),
+									BufferedImage.TYPE_INT_RGB);
+							Graphics2D background = canvas.createGraphics();
+							background.setColor(Color.WHITE);
+							background.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+							background.dispose();
+						}
+						// Later GIF frames may only cover part of the picture, so they are
+						// drawn over the previous frames at their own offset.
+						Point offset = frameOffset(reader.getImageMetadata(i));
+						Graphics2D graphics = canvas.createGraphics();
+						graphics.drawImage(frameImage, offset.x, offset.y, null);
+						graphics.dispose();
+						emit(frame(i, new Image(canvas)), start);
+					}
+				} finally {
+					reader.dispose();
+				}
+			}
+		}
+
+		/**
+		 * Pads a decoded frame, failing before it reaches the later stages if
+		 * it is narrower than the resolution, as frames of a directory after
+		 * the first one checked by main may be.
+		 */
+		private Frame frame(int index, Image image) throws IOException {
+			Frame frame = new Frame(index);
+			frame.image = ImageManipulator.padImage(image);
+			if (frame.image.getWidth() < this.resolution) {
+				throw new IOException(String.format(FRAME_TOO_NARROW_FORMAT, index, frame.image.getWidth(),
+						this.resolution));
+			}
+			return frame;
+		}
+
+		private static Point frameOffset(IIOMetadata metadata) {
+			Point offset = new Point();
+			if (metadata == null || !GIF_METADATA_FORMAT.equals(metadata.getNativeMetadataFormatName())) {
+				return offset;
+			}
+			for (Node node = metadata.getAsTree(GIF_METADATA_FORMAT).getFirstChild(); node != null;
+				 node = node.getNextSibling()) {
+				if (IMAGE_DESCRIPTOR.equals(node.getNodeName())) {
+					offset.x = Integer.parseInt(node.getAttributes().getNamedItem(LEFT_POSITION).getNodeValue());
+					offset.y = Integer.parseInt(node.getAttributes().getNamedItem(TOP_POSITION).getNodeValue());
+				}
+			}
+			return offset;
+		}
+
+		@Override
+		void process(Frame frame) {
+		}
+	}
+
+	private final class BrightnessStage extends Stage {
+		private final TileDeltaTracker deltaTracker = new TileDeltaTracker();
+
+		private BrightnessStage(BlockingQueue<Frame> input, BlockingQueue<Frame> output) {
+			super("brightness", input, output);
+		}
+
+		@Override
+		void process(Frame frame) {
+			if (deltaMode) {
+				frame.brightnesses = this.deltaTracker.update(frame.image, resolution, null);
+				frame.changedTiles = this.deltaTracker.getChangedTiles();
+				reusedTiles += this.deltaTracker.getReusedTiles();
+				totalTiles += (long) frame.brightnesses.length * resolution;
+			} else {
+				frame.brightnesses = ImageManipulator.sumSubImageBrightnesses(frame.image, resolution, null);
+			}
+			frame.image = null;
+		}
+	}
+
+	private final class CharMappingStage extends Stage {
+		// Frozen on the thread that builds the pipeline, so the stage's own
+		// thread never touches the matcher.
+		private final CharMatcherSnapshot snapshot = charMatcher.freeze();
+		private char[][] previousChars = null;
+
+		private CharMappingStage(BlockingQueue<Frame> input, BlockingQueue<Frame> output) {
+			super("chars", input, output);
+		}
+
+		@Override
+		void process(Frame frame) {
+			frame.chars = AsciiArtAlgorithm.mapChangedToChars(this.snapshot, frame.brightnesses,
+					frame.changedTiles, this.previousChars, null);
+			this.previousChars = deltaMode ? frame.chars : null;
+			frame.brightnesses = null;
+			frame.changedTiles = null;
+		}
+	}
+
+	private final class OutputStage extends Stage {
+		private OutputStage(BlockingQueue<Frame> input) {
+			super("output", input, null);
+		}
+
+		@Override
+		void process(Frame frame) throws IOException {
+			AsciiOutput output = new TextFileAsciiOutput(
+					outputDir.resolve(String.format(FRAME_FILE_FORMAT, frame.index)).toString());
+			try {
+				output.out(frame.chars);
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	/**
+	 * Main entry point for converting a frame sequence.
+	 * @param args The frames directory or multi-frame image, the output
+	 *             directory, and optionally the resolution and the charset.
+	 * @throws IOException If a frame cannot be read or written.
+	 * @throws InterruptedException If interrupted while converting.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length <= OUTPUT_DIR_ARG) {
+			System.out.println(USAGE_MESSAGE);
+			return;
+		}
+		File input = new File(args[INPUT_ARG]);
+		int resolution;
+		try {
+			resolution = parseResolution(args, input);
+		} catch (CustomException e) {
+			System.out.println(e.getMessage());
+			return;
+		}
+		String charset = args.length > CHARSET_ARG ? args[CHARSET_ARG] : DEFAULT_CHARSET;
+		Path outputDir = Files.createDirectories(Paths.get(args[OUTPUT_DIR_ARG]));
+		new AnimationPipeline(new SubImgCharMatcher(charset.toCharArray()), resolution, outputDir,
+				Boolean.getBoolean(DELTA_PROPERTY)).run(input);
+		GlyphCache.getDefault().save();
+	}
+
+	/**
+	 * Parses the resolution argument and checks it against the padded width
+	 * of the first frame, read from its header, the way the shell checks
+	 * its res command.
+	 * @param args  The command line arguments.
+	 * @param input A directory of frames, or a multi-frame image file.
+	 * @return The resolution, or the default one if none was given.
+	 * @throws CustomException If the resolution is not a number, or leaves
+	 * sub-images of the first frame narrower than a pixel.
+	 * @throws IOException If the first frame cannot be read.
+	 */
+	private static int parseResolution(String[] args, File input) throws CustomException, IOException {
+		int resolution;
+		try {
+			resolution = args.length > RESOLUTION_ARG ? Integer.parseInt(args[RESOLUTION_ARG]) :
+								 DEFAULT_RESOLUTION;
+		} catch (NumberFormatException e) {
+			throw new ResolutionFormatException();
+		}
+		if (resolution < 1) {
+			throw new ResolutionBoundaryException();
+		}
+		File[] files = input.listFiles(File::isFile);
+		if (files != null && files.length == 0) {
+			return resolution;
+		}
+		File firstFrame = files == null ? input : Collections.min(Arrays.asList(files));
+		if (resolution > new StripedImageReader(firstFrame.getPath()).getWidth()) {
+			throw new ResolutionBoundaryException();
+		}
+		return resolution;
+	}
+}
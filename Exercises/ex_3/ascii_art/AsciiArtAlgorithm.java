@@ -1,23 +1,50 @@
 package ascii_art;
 
+import ascii_output.ColorAsciiOutput;
+import image.BandTask;
+import image.BrightnessSource;
+import image.ColorGrid;
 import image.Image;
-import image.ImageManipulator;
+import image.TileDeltaTracker;
+import image_char_matching.CharMatcherSnapshot;
 import image_char_matching.SubImgCharMatcher;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
 /**
  * The AsciiArtAlgorithm class generates ASCII art from an image.
  * It uses brightness levels of sub-regions of the image
  * to map each region to a corresponding ASCII character.
  * The algorithm supports efficient recalculations by
- * caching brightness values for the last processed resolution.
+ * caching brightness values in a {@link BrightnessCache} shared by
+ * all runs, keyed by image and resolution.
+ * Its memory budget can be set with the
+ * {@value #CACHE_BUDGET_PROPERTY} system property, in bytes.
+ * When given a {@link ForkJoinPool}, both the brightness computation and
+ * the character mapping are split into bands of rows that run in parallel.
+ * In delta mode the algorithm converts successive frames of a sequence,
+ * and only the sub-images whose pixels changed since the previous frame
+ * get a new brightness and a new character.
  * @author Rotem Israeli, Nadav Benjamin
  */
 public class AsciiArtAlgorithm {
-	private static int lastResolution = 0;
-	private static double[][] lastBrightnesses = null;
+	/**
+	 * The system property holding the memory budget of the brightness cache, in bytes.
+	 */
+	public static final String CACHE_BUDGET_PROPERTY = "ascii.cacheBytes";
+	private static final long DEFAULT_CACHE_BUDGET = 64L * 1024 * 1024;
+	private static final String NOT_DELTA_MODE_MESSAGE = "Frames can only be given in delta mode";
+	private static final BrightnessCache BRIGHTNESS_CACHE =
+			new BrightnessCache(Long.getLong(CACHE_BUDGET_PROPERTY, DEFAULT_CACHE_BUDGET));
 	private final SubImgCharMatcher charMatcher;
 	private final int resolution;
-	private final Image image;
+	private final BrightnessSource image;
+	private final ForkJoinPool pool;
+	private final TileDeltaTracker deltaTracker;
+	private char[][] previousChars = null;
+	private long previousMatcherVersion = 0;
+	private StageStats stats = null;
 
 	/**
 	 * Constructor for the AsciiArtAlgorithm.
@@ -26,34 +53,233 @@ public class AsciiArtAlgorithm {
 	 * @param resolution   The resolution of sub-image regions.
 	 * @param image        The image to be converted to ASCII art.
 	 */
-	public AsciiArtAlgorithm(SubImgCharMatcher charMatcher, int resolution, Image image) {
+	public AsciiArtAlgorithm(SubImgCharMatcher charMatcher, int resolution, BrightnessSource image) {
+		this(charMatcher, resolution, image, null);
+	}
+
+	/**
+	 * Constructor for an AsciiArtAlgorithm that runs in parallel.
+	 * @param charMatcher  An instance of SubImgCharMatcher to map
+	 *                     brightness levels to ASCII characters.
+	 * @param resolution   The resolution of sub-image regions.
+	 * @param image        The image to be converted to ASCII art.
+	 * @param pool         The pool to run on, or {@code null} to run
+	 *                     on the calling thread.
+	 */
+	public AsciiArtAlgorithm(SubImgCharMatcher charMatcher, int resolution, BrightnessSource image,
+							 ForkJoinPool pool) {
+		this(charMatcher, resolution, image, pool, null);
+	}
+
+	/**
+	 * Constructor for an AsciiArtAlgorithm in delta mode, which converts
+	 * the frames given to {@link #run(Image)} one after the other.
+	 * @param charMatcher  An instance of SubImgCharMatcher to map
+	 *                     brightness levels to ASCII characters.
+	 * @param resolution   The resolution of sub-image regions.
+	 * @param pool         The pool to run on, or {@code null} to run
+	 *                     on the calling thread.
+	 */
+	public AsciiArtAlgorithm(SubImgCharMatcher charMatcher, int resolution, ForkJoinPool pool) {
+		this(charMatcher, resolution, null, pool, new TileDeltaTracker());
+	}
+
+	private AsciiArtAlgorithm(SubImgCharMatcher charMatcher, int resolution, BrightnessSource image,
+							  ForkJoinPool pool, TileDeltaTracker deltaTracker) {
 		this.charMatcher = charMatcher;
 		this.resolution = resolution;
 		this.image = image;
+		this.pool = pool;
+		this.deltaTracker = deltaTracker;
 	}
 
 	/**
 	 * Generates ASCII art from the provided image.
-	 * If the resolution matches the last processed resolution,
-	 * cached brightness values are reused for efficiency.
+	 * If brightness values of this image were already computed at this
+	 * resolution, or at a finer one, they are reused for efficiency.
 	 * Otherwise, brightness levels are recalculated.
 	 * @return A 2D array of characters representing the ASCII art.
 	 */
 	public char[][] run() {
-		double[][] subImgBrightnesses;
-		if (lastResolution == this.resolution) {
-			subImgBrightnesses = lastBrightnesses;
-		} else {
-			subImgBrightnesses = ImageManipulator.getSubImageBrightnesses(this.image, this.resolution);
-			lastResolution = this.resolution;
-			lastBrightnesses = subImgBrightnesses;
+		double[][] subImgBrightnesses = measure(StageStats.Stage.BRIGHTNESS, this.pool, () -> {
+			double[][] brightnesses = BRIGHTNESS_CACHE.get(this.image, this.resolution);
+			if (brightnesses == null) {
+				brightnesses = this.image.getSubImageBrightnesses(this.resolution, this.pool);
+				BRIGHTNESS_CACHE.put(this.image, this.resolution, brightnesses);
+			}
+			return brightnesses;
+		});
+		return measure(StageStats.Stage.CHAR_MAPPING, this.pool,
+				() -> mapToChars(this.charMatcher, subImgBrightnesses, this.pool));
+	}
+
+	/**
+	 * Generates ASCII art from the provided image by shape: every
+	 * sub-image is thresholded to a bitmap of the glyphs' resolution and
+	 * mapped to the character whose glyph differs from it in the fewest bits.
+	 * @return A 2D array of characters representing the ASCII art.
+	 */
+	public char[][] runByShape() {
+		CharMatcherSnapshot snapshot = this.charMatcher.freeze();
+		long[][][] shapes = measure(StageStats.Stage.BRIGHTNESS, this.pool,
+				() -> this.image.getSubImageShapes(this.resolution, snapshot.getShapeResolution(), this.pool));
+		return measure(StageStats.Stage.CHAR_MAPPING, this.pool, () -> mapShapesToChars(snapshot, shapes));
+	}
+
+	private char[][] mapShapesToChars(CharMatcherSnapshot snapshot, long[][][] shapes) {
+		char[][] chars = new char[shapes.length][this.resolution];
+		BandTask.forEachBand(this.pool, chars.length, (fromRow, toRow) -> {
+			for (int i = fromRow; i < toRow; i++) {
+				for (int j = 0; j < chars[i].length; j++) {
+					chars[i][j] = snapshot.getCharByImageShape(shapes[i][j]);
+				}
+			}
+		});
+		return chars;
+	}
+
+	/**
+	 * Generates colored ASCII art from the provided image and writes it to
+	 * the given output.
+	 * The brightness and the average color of every sub-image are computed
+	 * in a single pass over the pixels, and the brightnesses are cached for
+	 * later runs like those of {@link #run()}.
+	 * @param output  The output the art and its colors are written to.
+	 * @param byShape Whether characters are matched by shape, as in
+	 *                {@link #runByShape()}, instead of by brightness.
+	 */
+	public void runInColor(ColorAsciiOutput output, boolean byShape) {
+		ColorGrid grid = measure(StageStats.Stage.BRIGHTNESS, this.pool,
+				() -> this.image.getSubImageColors(this.resolution, this.pool));
+		BRIGHTNESS_CACHE.put(this.image, this.resolution, grid.getBrightnesses());
+		char[][] chars = byShape ? runByShape() : measure(StageStats.Stage.CHAR_MAPPING, this.pool,
+				() -> mapToChars(this.charMatcher, grid.getBrightnesses(), this.pool));
+		measure(StageStats.Stage.OUTPUT, null, () -> {
+			output.out(chars, grid.getColors());
+			return null;
+		});
+	}
+
+	/**
+	 * Generates ASCII art from the next frame of a sequence, in delta mode.
+	 * Sub-images whose pixels are the same as in the previous frame keep
+	 * their previous character, unless the character set or the rounding
+	 * strategy changed in between.
+	 * @param frame The next frame, padded like the previous ones.
+	 * @return A 2D array of characters representing the ASCII art.
+	 * @throws IllegalStateException If the algorithm is not in delta mode.
+	 */
+	public char[][] run(Image frame) {
+		if (this.deltaTracker == null) {
+			throw new IllegalStateException(NOT_DELTA_MODE_MESSAGE);
 		}
-		char[][] chars = new char[subImgBrightnesses.length][subImgBrightnesses[0].length];
-		for (int i = 0; i < chars.length; i++) {
-			for (int j = 0; j < chars[i].length; j++) {
-				chars[i][j] = this.charMatcher.getCharByImageBrightness(subImgBrightnesses[i][j]);
+		double[][] subImgBrightnesses = this.deltaTracker.update(frame, this.resolution, this.pool);
+		CharMatcherSnapshot snapshot = this.charMatcher.freeze();
+		char[][] previous = snapshot.getVersion() == this.previousMatcherVersion ? this.previousChars : null;
+		this.previousChars = mapChangedToChars(snapshot, subImgBrightnesses,
+				this.deltaTracker.getChangedTiles(), previous, this.pool);
+		this.previousMatcherVersion = snapshot.getVersion();
+		return this.previousChars;
+	}
+
+	/**
+	 * Gets the number of sub-images of the last frame that kept their
+	 * previous brightness and character, in delta mode.
+	 * @return The number of reused sub-images, or 0 if the algorithm is
+	 * not in delta mode.
+	 */
+	public int getReusedTiles() {
+		return this.deltaTracker == null ? 0 : this.deltaTracker.getReusedTiles();
+	}
+
+	/**
+	 * Records the cost of every stage of later runs.
+	 * @param stats The statistics the stages are added to, or {@code null}
+	 *              to record nothing.
+	 */
+	void setStats(StageStats stats) {
+		this.stats = stats;
+	}
+
+	private <T> T measure(StageStats.Stage stage, ForkJoinPool pool, Supplier<T> work) {
+		return this.stats == null ? work.get() : this.stats.measure(stage, pool, work::get);
+	}
+
+	/**
+	 * Maps every brightness of a grid to its matching character.
+	 * @param charMatcher  The matcher used to map brightness levels to
+	 *                     ASCII characters.
+	 * @param brightnesses A 2D array of sub-image brightnesses.
+	 * @param pool         The pool to map on, or {@code null} to map on
+	 *                     the calling thread.
+	 * @return A 2D array of characters representing the ASCII art.
+	 */
+	public static char[][] mapToChars(SubImgCharMatcher charMatcher, double[][] brightnesses,
+									  ForkJoinPool pool) {
+		return mapToChars(charMatcher.freeze(), brightnesses, pool);
+	}
+
+	/**
+	 * Maps every brightness of a grid to its matching character, sharing
+	 * a snapshot of the matcher between the workers.
+	 * @param snapshot     The frozen matcher used to map brightness levels
+	 *                     to ASCII characters.
+	 * @param brightnesses A 2D array of sub-image brightnesses.
+	 * @param pool         The pool to map on, or {@code null} to map on
+	 *                     the calling thread.
+	 * @return A 2D array of characters representing the ASCII art.
+	 */
+	public static char[][] mapToChars(CharMatcherSnapshot snapshot, double[][] brightnesses,
+									  ForkJoinPool pool) {
+		char[][] chars = new char[brightnesses.length][brightnesses[0].length];
+		BandTask.forEachBand(pool, chars.length, (fromRow, toRow) -> {
+			for (int i = fromRow; i < toRow; i++) {
+				for (int j = 0; j < chars[i].length; j++) {
+					chars[i][j] = snapshot.getCharByImageBrightness(brightnesses[i][j]);
+				}
 			}
+		});
+		return chars;
+	}
+
+	/**
+	 * Maps the brightnesses of changed sub-images to their matching
+	 * characters, copying the characters of the others from the previous
+	 * grid. A new grid is returned, the previous one is not modified.
+	 * @param snapshot     The frozen matcher used to map brightness levels
+	 *                     to ASCII characters.
+	 * @param brightnesses A 2D array of sub-image brightnesses.
+	 * @param changed      A 2D array marking the sub-images to map again,
+	 *                     or {@code null} to map all of them.
+	 * @param previous     The characters of the previous frame, or
+	 *                     {@code null} to map all sub-images.
+	 * @param pool         The pool to map on, or {@code null} to map on
+	 *                     the calling thread.
+	 * @return A 2D array of characters representing the ASCII art.
+	 */
+	public static char[][] mapChangedToChars(CharMatcherSnapshot snapshot, double[][] brightnesses,
+											 boolean[][] changed, char[][] previous, ForkJoinPool pool) {
+		if (changed == null || previous == null || previous.length != brightnesses.length
+					|| previous[0].length != brightnesses[0].length) {
+			return mapToChars(snapshot, brightnesses, pool);
 		}
+		char[][] chars = new char[brightnesses.length][brightnesses[0].length];
+		BandTask.forEachBand(pool, chars.length, (fromRow, toRow) -> {
+			for (int i = fromRow; i < toRow; i++) {
+				for (int j = 0; j < chars[i].length; j++) {
+					chars[i][j] = changed[i][j] ? snapshot.getCharByImageBrightness(brightnesses[i][j]) :
+										  previous[i][j];
+				}
+			}
+		});
 		return chars;
 	}
+
+	/**
+	 * Gets the brightness cache shared by all runs of the algorithm.
+	 * @return The shared brightness cache.
+	 */
+	public static BrightnessCache getBrightnessCache() {
+		return BRIGHTNESS_CACHE;
+	}
 }
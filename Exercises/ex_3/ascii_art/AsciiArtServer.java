@@ -0,0 +1,554 @@
+package ascii_art;
+
+import ascii_art.exceptions.CustomException;
+import ascii_art.exceptions.MatchFormatException;
+import ascii_art.exceptions.OutputFormatException;
+import ascii_art.exceptions.ResolutionBoundaryException;
+import ascii_art.exceptions.ResolutionFormatException;
+import ascii_art.exceptions.SmallCharsetException;
+import ascii_output.AsciiOutput;
+import ascii_output.ColorAsciiOutput;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import image.BrightnessSource;
+import image.Image;
+import image_char_matching.GlyphCache;
+import image_char_matching.SubImgCharMatcher;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves image to ASCII art conversions over HTTP, so other tools can
+ * convert images without starting a JVM for every one.
+ * A {@code POST} to {@code /convert} carries the image file as its body,
+ * and its query may set the parameters a shell would:
+ * {@code chars} (the characters to use, {@code all}, or a Unicode set such
+ * as {@code braille} or {@code U+2580-U+259F}), {@code res}
+ * (the number of characters per row, up to the width of the image, which
+ * is divided as it is, without padding), {@code round}
+ * ({@code abs}, {@code up} or {@code down}), {@code match}
+ * ({@code brightness} or {@code shape}) and {@code output} ({@code text},
+ * {@code html} or {@code htmlcolor}). The art is streamed back as plain
+ * text or HTML. A {@code GET} of {@code /stats}
+ * reports the cost of every stage, summed over all requests.
+ * Conversions run on a fixed number of workers, set by the
+ * {@value #WORKERS_PROPERTY} system property, fed from a queue bounded by
+ * the {@value #QUEUE_PROPERTY} system property. When the queue is full,
+ * requests are answered at once with {@code 503 Service Unavailable}
+ * instead of piling up.
+ * Uploads of more than {@value #MAX_UPLOAD_PROPERTY} bytes, and images of
+ * more than {@value #MAX_PIXELS_PROPERTY} pixels, are answered with
+ * {@code 413 Payload Too Large}. The pixel count is read from the image
+ * header before decoding, since a small upload may decode to a huge
+ * raster. Uploads that cannot be decoded, including truncated ones, are
+ * answered with {@code 400 Bad Request}.
+ * Glyphs are shared through the {@link GlyphCache}, and decoded images
+ * through a cache keyed by a hash of the uploaded bytes, so a repeated
+ * upload skips decoding and reuses the brightnesses computed for it.
+ * The server only listens on the loopback interface, on the port given by
+ * the {@value #PORT_PROPERTY} system property, or on a free port if it is 0.
+ * Usage: {@code AsciiArtServer}
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see Shell
+ */
+public class AsciiArtServer {
+	/**
+	 * The system property holding the port the server listens on.
+	 */
+	public static final String PORT_PROPERTY = "ascii.server.port";
+	/**
+	 * The system property holding the number of conversions run at once.
+	 */
+	public static final String WORKERS_PROPERTY = "ascii.server.workers";
+	/**
+	 * The system property holding the number of requests that may wait for a worker.
+	 */
+	public static final String QUEUE_PROPERTY = "ascii.server.queue";
+	/**
+	 * The system property holding the memory budget of the decoded image cache, in bytes.
+	 */
+	public static final String IMAGE_CACHE_PROPERTY = "ascii.server.imageCacheBytes";
+	/**
+	 * The system property holding the largest accepted upload, in bytes.
+	 */
+	public static final String MAX_UPLOAD_PROPERTY = "ascii.server.maxUploadBytes";
+	/**
+	 * The system property holding the largest accepted image, in pixels.
+	 */
+	public static final String MAX_PIXELS_PROPERTY = "ascii.server.maxPixels";
+	private static final int DEFAULT_PORT = 8080;
+	private static final int QUEUED_REQUESTS_PER_WORKER = 4;
+	private static final long DEFAULT_IMAGE_CACHE_BYTES = 256L * 1024 * 1024;
+	private static final long DEFAULT_MAX_UPLOAD_BYTES = 64L * 1024 * 1024;
+	// A raster and summed-area table of 384 MiB.
+	private static final long DEFAULT_MAX_PIXELS = 1L << 25;
+	private static final int FIRST_IMAGE = 0;
+	private static final int BYTES_PER_CACHED_PIXEL = Integer.BYTES + Long.BYTES;
+	private static final int SOCKET_BACKLOG = 0;
+	private static final int STOP_DELAY_SECONDS = 1;
+	private static final String CONVERT_PATH = "/convert";
+	private static final String STATS_PATH = "/stats";
+	private static final String POST = "POST";
+	private static final String GET = "GET";
+	private static final String CHARS = "chars";
+	private static final String RES = "res";
+	private static final String ROUND = "round";
+	private static final String MATCH = "match";
+	private static final String OUTPUT = "output";
+	private static final String ALL = "all";
+	private static final String DEFAULT_CHARS = "0123456789";
+	private static final int DEFAULT_RESOLUTION = 128;
+	private static final String DEFAULT_ROUND = "abs";
+	private static final String MATCH_SHAPE = "shape";
+	private static final String MATCH_BRIGHTNESS = "brightness";
+	private static final String DEFAULT_OUTPUT = "text";
+	private static final String TEXT = "text";
+	private static final String HTML = "html";
+	private static final String HTML_STREAM = "htmlstream";
+	private static final String HTML_COLOR = "htmlcolor";
+	private static final char MIN_ASCII_VALUE = 32;
+	private static final char MAX_ASCII_VALUE = 126;
+	private static final int MIN_CHAR_COUNT = 2;
+	private static final String HASH_ALGORITHM = "SHA-256";
+	private static final String PARAMETER_SEPARATOR = "&";
+	private static final char VALUE_SEPARATOR = '=';
+	private static final String CONTENT_TYPE = "Content-Type";
+	private static final String TEXT_TYPE = "text/plain; charset=UTF-8";
+	private static final String HTML_TYPE = "text/html; charset=UTF-8";
+	private static final String ALLOW = "Allow";
+	private static final int OK = 200;
+	private static final int BAD_REQUEST = 400;
+	private static final int NOT_FOUND = 404;
+	private static final int METHOD_NOT_ALLOWED = 405;
+	private static final int PAYLOAD_TOO_LARGE = 413;
+	private static final int INTERNAL_ERROR = 500;
+	private static final int SERVICE_UNAVAILABLE = 503;
+	private static final long CHUNKED = 0;
+	private static final String BUSY_MESSAGE = "Too many requests, try again later.";
+	private static final String NOT_FOUND_MESSAGE = "Unknown path.";
+	private static final String INVALID_IMAGE_MESSAGE = "The body is not a supported image.";
+	private static final String TOO_LARGE_MESSAGE = "The image is too large.";
+	private static final String TOO_MANY_PIXELS_FORMAT = "The image has too many pixels: %dx%d, at most %d.";
+	private static final String LISTENING_FORMAT = "Listening on http://%s:%d%s%n";
+	private final HttpServer server;
+	private final ThreadPoolExecutor workers;
+	private final DecodedImageCache images;
+	private final long maxUploadBytes;
+	private final long maxPixels;
+	private final StageStats stats = new StageStats();
+
+	/**
+	 * A bounded least-recently-used cache of decoded images, keyed by a
+	 * hash of the bytes they were decoded from. Every image is decoded at
+	 * most once at a time: requests uploading an image that another request
+	 * is decoding wait for its result.
+	 */
+	private static final class DecodedImageCache {
+		private final LinkedHashMap<String, CompletableFuture<Image>> images =
+				new LinkedHashMap<>(16, 0.75f, true);
+		private final long maxBytes;
+		private long usedBytes = 0;
+
+		private DecodedImageCache(long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		private Image get(String key, StageStats.Work<Image, IOException> decoder) throws IOException {
+			CompletableFuture<Image> future;
+			boolean isDecoder = false;
+			synchronized (this) {
+				future = this.images.get(key);
+				if (future == null) {
+					future = new CompletableFuture<>();
+					this.images.put(key, future);
+					isDecoder = true;
+				}
+			}
+			if (!isDecoder) {
+				return future.join();
+			}
+			Image image = null;
+			try {
+				image = decoder.run();
+			} finally {
+				future.complete(image);
+				added(key, image);
+			}
+			return image;
+		}
+
+		private synchronized void added(String key, Image image) {
+			if (image == null) {
+				// Failures are not cached, the next upload is decoded again.
+				this.images.remove(key);
+				return;
+			}
+			this.usedBytes += sizeOf(image);
+			Iterator<CompletableFuture<Image>> eldest = this.images.values().iterator();
+			while (this.usedBytes > this.maxBytes && eldest.hasNext()) {
+				CompletableFuture<Image> entry = eldest.next();
+				// Images still being decoded are not counted yet.
+				if (entry.isDone()) {
+					this.usedBytes -= sizeOf(entry.join());
+					eldest.remove();
+				}
+			}
+		}
+
+		private static long sizeOf(Image image) {
+			// The raster and, once built, the summed-area table of the image.
+			return (long) image.getWidth() * image.getHeight() * BYTES_PER_CACHED_PIXEL;
+		}
+	}
+
+	/**
+	 * Constructs a server listening on the loopback interface.
+	 * It does not accept requests until {@link #start()} is called.
+	 * @param port           The port to listen on, or 0 for any free port.
+	 * @param workers        The number of conversions run at once.
+	 * @param queueSize      The number of requests that may wait for a worker.
+	 * @param imageCacheSize The approximate number of bytes the cached
+	 *                       decoded images may occupy.
+	 * @param maxUploadBytes The largest accepted upload, in bytes.
+	 * @param maxPixels      The largest accepted image, in pixels.
+	 * @throws IOException If the port cannot be bound.
+	 */
+	public AsciiArtServer(int port, int workers, int queueSize, long imageCacheSize, long maxUploadBytes,
+						  long maxPixels) throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+				SOCKET_BACKLOG);
+		this.workers = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueSize), new ThreadPoolExecutor.AbortPolicy());
+		this.images = new DecodedImageCache(imageCacheSize);
+		this.maxUploadBytes = maxUploadBytes;
+		this.maxPixels = maxPixels;
+		// Requests are accepted on the server's own thread, which only hands
+		// them to the workers, so a full queue is answered right away.
+		this.server.createContext(CONVERT_PATH, this::dispatch);
+		this.server.createContext(STATS_PATH, this::dispatch);
+	}
+
+	/**
+	 * Starts accepting requests.
+	 */
+	public void start() {
+		this.server.start();
+	}
+
+	/**
+	 * Stops accepting requests, and lets the running conversions finish.
+	 */
+	public void stop() {
+		this.server.stop(STOP_DELAY_SECONDS);
+		this.workers.shutdown();
+	}
+
+	/**
+	 * Gets the port the server listens on.
+	 * @return The bound port.
+	 */
+	public int getPort() {
+		return this.server.getAddress().getPort();
+	}
+
+	private void dispatch(HttpExchange exchange) throws IOException {
+		try {
+			this.workers.execute(() -> handle(exchange));
+		} catch (RejectedExecutionException e) {
+			sendMessage(exchange, SERVICE_UNAVAILABLE, BUSY_MESSAGE);
+		}
+	}
+
+	private void handle(HttpExchange exchange) {
+		try (exchange) {
+			String path = exchange.getRequestURI().getPath();
+			if (path.equals(CONVERT_PATH)) {
+				if (requireMethod(exchange, POST)) {
+					convert(exchange);
+				}
+			} else if (path.equals(STATS_PATH)) {
+				if (requireMethod(exchange, GET)) {
+					sendStats(exchange);
+				}
+			} else {
+				sendMessage(exchange, NOT_FOUND, NOT_FOUND_MESSAGE);
+			}
+		} catch (IOException | UncheckedIOException e) {
+			// The client went away, so there is nobody to answer.
+		} catch (RuntimeException e) {
+			try {
+				sendMessage(exchange, INTERNAL_ERROR, String.valueOf(e.getMessage()));
+			} catch (IOException ignored) {
+				// The response was already started, so it is cut short instead.
+			}
+		}
+	}
+
+	private void convert(HttpExchange exchange) throws IOException {
+		Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+		byte[] upload = readUpload(exchange.getRequestBody());
+		if (upload == null) {
+			sendMessage(exchange, PAYLOAD_TOO_LARGE, TOO_LARGE_MESSAGE);
+			return;
+		}
+		Dimension size = readSize(upload);
+		if (size == null) {
+			sendMessage(exchange, BAD_REQUEST, INVALID_IMAGE_MESSAGE);
+			return;
+		}
+		if ((long) size.width * size.height > this.maxPixels) {
+			sendMessage(exchange, PAYLOAD_TOO_LARGE,
+					String.format(TOO_MANY_PIXELS_FORMAT, size.width, size.height, this.maxPixels));
+			return;
+		}
+		Image image = loadImage(upload);
+		if (image == null) {
+			sendMessage(exchange, BAD_REQUEST, INVALID_IMAGE_MESSAGE);
+			return;
+		}
+		// Every parameter is checked before the response starts, so that a
+		// bad one is still answered with an error status.
+		AsciiArtAlgorithm algorithm;
+		boolean byShape;
+		String format = parameters.getOrDefault(OUTPUT, DEFAULT_OUTPUT);
+		String contentType;
+		try {
+			SubImgCharMatcher matcher = createMatcher(parameters.getOrDefault(CHARS, DEFAULT_CHARS));
+			matcher.changeRoundingStrategy(parameters.getOrDefault(ROUND, DEFAULT_ROUND));
+			byShape = parseMatching(parameters.getOrDefault(MATCH, MATCH_BRIGHTNESS));
+			contentType = getContentType(format);
+			algorithm = new AsciiArtAlgorithm(matcher, parseResolution(parameters.get(RES), image), image);
+		} catch (CustomException e) {
+			sendMessage(exchange, BAD_REQUEST, e.getMessage());
+			return;
+		}
+		algorithm.setStats(this.stats);
+		exchange.getResponseHeaders().set(CONTENT_TYPE, contentType);
+		exchange.sendResponseHeaders(OK, CHUNKED);
+		AsciiOutput output;
+		try {
+			output = OutputFactory.getChannelOutputMethod(format, Channels.newChannel(exchange.getResponseBody()));
+		} catch (OutputFormatException e) {
+			throw new IllegalStateException(e);
+		}
+		if (output instanceof ColorAsciiOutput colorOutput) {
+			algorithm.runInColor(colorOutput, byShape);
+		} else {
+			char[][] chars = byShape ? algorithm.runByShape() : algorithm.run();
+			this.stats.measure(StageStats.Stage.OUTPUT, () -> {
+				output.out(chars);
+				return null;
+			});
+		}
+	}
+
+	private Image loadImage(byte[] upload) throws IOException {
+		return this.images.get(hash(upload), () -> this.stats.measure(StageStats.Stage.DECODE,
+				() -> decode(upload)));
+	}
+
+	private static Image decode(byte[] upload) {
+		try {
+			BufferedImage image = ImageIO.read(new MemoryCacheImageInputStream(new ByteArrayInputStream(upload)));
+			return image == null ? null : new Image(image);
+		} catch (IOException | RuntimeException e) {
+			// A truncated or corrupt upload is the client's error, and must not
+			// be mistaken for a client that went away.
+			return null;
+		}
+	}
+
+	private static Dimension readSize(byte[] upload) {
+		try (ImageInputStream stream = new MemoryCacheImageInputStream(new ByteArrayInputStream(upload))) {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+			if (!readers.hasNext()) {
+				return null;
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(stream, true, true);
+				return new Dimension(reader.getWidth(FIRST_IMAGE), reader.getHeight(FIRST_IMAGE));
+			} finally {
+				reader.dispose();
+			}
+		} catch (IOException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	private byte[] readUpload(InputStream body) throws IOException {
+		ByteArrayOutputStream upload = new ByteArrayOutputStream();
+		byte[] buffer = new byte[(int) Math.min(this.maxUploadBytes + 1, 1 << 16)];
+		for (int read = body.read(buffer); read >= 0; read = body.read(buffer)) {
+			upload.write(buffer, 0, read);
+			if (upload.size() > this.maxUploadBytes) {
+				return null;
+			}
+		}
+		return upload.toByteArray();
+	}
+
+	private void sendStats(HttpExchange exchange) throws IOException {
+		ByteArrayOutputStream report = new ByteArrayOutputStream();
+		this.stats.print(new PrintStream(report, true, StandardCharsets.UTF_8));
+		send(exchange, OK, report.toByteArray());
+	}
+
+	private static boolean requireMethod(HttpExchange exchange, String method) throws IOException {
+		if (exchange.getRequestMethod().equals(method)) {
+			return true;
+		}
+		exchange.getResponseHeaders().set(ALLOW, method);
+		sendMessage(exchange, METHOD_NOT_ALLOWED, method);
+		return false;
+	}
+
+	private static void sendMessage(HttpExchange exchange, int status, String message) throws IOException {
+		send(exchange, status, (message + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set(CONTENT_TYPE, TEXT_TYPE);
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static SubImgCharMatcher createMatcher(String chars) throws SmallCharsetException {
+		SubImgCharMatcher matcher = new SubImgCharMatcher(new char[0]);
+		List<Character> charset = Shell.parseUnicodeCharset(chars);
+		if (charset == null) {
+			charset = new ArrayList<>();
+			if (chars.equals(ALL)) {
+				for (char c = MIN_ASCII_VALUE; c <= MAX_ASCII_VALUE; c++) {
+					charset.add(c);
+				}
+			} else {
+				for (int i = 0; i < chars.length(); i++) {
+					if (Shell.checkCharInRange(chars.charAt(i))) {
+						charset.add(chars.charAt(i));
+					}
+				}
+			}
+		}
+		matcher.addChars(charset);
+		if (matcher.getCharSet().size() < MIN_CHAR_COUNT) {
+			throw new SmallCharsetException();
+		}
+		return matcher;
+	}
+
+	private static boolean parseMatching(String matching) throws MatchFormatException {
+		return switch (matching) {
+			case MATCH_BRIGHTNESS -> false;
+			case MATCH_SHAPE -> true;
+			default -> throw new MatchFormatException();
+		};
+	}
+
+	private static String getContentType(String format) throws OutputFormatException {
+		return switch (format) {
+			case TEXT -> TEXT_TYPE;
+			case HTML, HTML_STREAM, HTML_COLOR -> HTML_TYPE;
+			default -> throw new OutputFormatException();
+		};
+	}
+
+	private static int parseResolution(String value, BrightnessSource image) throws CustomException {
+		if (value == null) {
+			return Math.min(DEFAULT_RESOLUTION, image.getWidth());
+		}
+		int resolution;
+		try {
+			resolution = Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new ResolutionFormatException();
+		}
+		// Like the shell's res command with a number, any resolution that
+		// leaves every sub-image at least a pixel wide is allowed.
+		if (resolution < 1 || resolution > image.getWidth()) {
+			throw new ResolutionBoundaryException();
+		}
+		return resolution;
+	}
+
+	private static Map<String, String> parseQuery(String query) {
+		Map<String, String> parameters = new HashMap<>();
+		if (query == null) {
+			return parameters;
+		}
+		for (String parameter : query.split(PARAMETER_SEPARATOR)) {
+			int separator = parameter.indexOf(VALUE_SEPARATOR);
+			if (separator > 0) {
+				parameters.put(URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8),
+						URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+			}
+		}
+		return parameters;
+	}
+
+	private static String hash(byte[] bytes) {
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance(HASH_ALGORITHM).digest(bytes));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Main entry point for running the server.
+	 * @param args Unused.
+	 * @throws IOException If the port cannot be bound.
+	 */
+	public static void main(String[] args) throws IOException {
+		int workers = Integer.getInteger(WORKERS_PROPERTY, Runtime.getRuntime().availableProcessors());
+		AsciiArtServer server = new AsciiArtServer(Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT), workers,
+				Integer.getInteger(QUEUE_PROPERTY, workers * QUEUED_REQUESTS_PER_WORKER),
+				Long.getLong(IMAGE_CACHE_PROPERTY, DEFAULT_IMAGE_CACHE_BYTES),
+				Long.getLong(MAX_UPLOAD_PROPERTY, DEFAULT_MAX_UPLOAD_BYTES),
+				Long.getLong(MAX_PIXELS_PROPERTY, DEFAULT_MAX_PIXELS));
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			server.stop();
+			try {
+				GlyphCache.getDefault().save();
+			} catch (IOException e) {
+				// The glyph cache only saves time, the next run renders the glyphs again.
+			}
+		}));
+		server.start();
+		System.out.printf(LISTENING_FORMAT, InetAddress.getLoopbackAddress().getHostAddress(),
+				server.getPort(), CONVERT_PATH);
+	}
+}
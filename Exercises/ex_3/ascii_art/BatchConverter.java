@@ -0,0 +1,181 @@
+package ascii_art;
+
+import ascii_art.exceptions.CustomException;
+import image_char_matching.GlyphCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts many images to ASCII art without user interaction.
+ * Every image is run through its own {@link Shell}, which executes the
+ * same command script (one shell command per line, for example
+ * {@code add all}, {@code res up} or {@code round down}). If the script
+ * never runs {@code asciiArt}, it is run once after the script ends.
+ * File outputs are named after the image and written to the output
+ * directory, so each image gets its own file.
+ * Images are converted concurrently on a fixed number of workers, set by
+ * the {@value #WORKERS_PROPERTY} system property, fed from a bounded
+ * queue. A throughput summary is printed at the end, followed by the
+ * statistics of every stage, summed over all images, when the
+ * {@value Shell#STATS_PROPERTY} system property is {@code true}.
+ * Usage: {@code BatchConverter <script> <outputDir> <image or directory>...}
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see Shell
+ */
+public class BatchConverter {
+	/**
+	 * The system property holding the number of images converted at once.
+	 */
+	public static final String WORKERS_PROPERTY = "ascii.workers";
+	private static final int QUEUED_IMAGES_PER_WORKER = 2;
+	private static final String ASCII_ART = "asciiArt";
+	private static final String EXIT = "exit";
+	private static final char EXTENSION_DOT = '.';
+	private static final String ERROR_SEPARATOR = ": ";
+	private static final String USAGE_MESSAGE =
+			"Usage: BatchConverter <script> <outputDir> <image or directory>...";
+	private static final String SUMMARY_FORMAT =
+			"Converted %d of %d images in %.2f seconds (%.1f images per second), %d failed.%n";
+	private static final double NANOS_PER_SECOND = 1e9;
+	private static final int SCRIPT_ARG = 0;
+	private static final int OUTPUT_DIR_ARG = 1;
+	private static final int FIRST_IMAGE_ARG = 2;
+	private final List<String> script;
+	private final Path outputDir;
+	private final int workers;
+	private final AtomicInteger converted = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final StageStats stats = new StageStats();
+
+	/**
+	 * Constructs a batch converter.
+	 * @param script    The shell commands run on every image.
+	 * @param outputDir The directory output files are written to.
+	 * @param workers   The number of images converted at once.
+	 */
+	public BatchConverter(List<String> script, Path outputDir, int workers) {
+		this.script = new ArrayList<>(script);
+		if (!this.script.contains(ASCII_ART)) {
+			this.script.add(ASCII_ART);
+		}
+		this.outputDir = outputDir;
+		this.workers = workers;
+	}
+
+	/**
+	 * Converts every given image, blocking until all are done.
+	 * @param imageNames The paths of the images.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public void convertAll(List<String> imageNames) throws InterruptedException {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(this.workers, this.workers,
+				0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(this.workers * QUEUED_IMAGES_PER_WORKER),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		long start = System.nanoTime();
+		for (String imageName : imageNames) {
+			executor.execute(() -> convert(imageName));
+		}
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		double seconds = (System.nanoTime() - start) / NANOS_PER_SECOND;
+		System.out.printf(SUMMARY_FORMAT, this.converted.get(), imageNames.size(), seconds,
+				this.converted.get() / seconds, this.failed.get());
+		if (Boolean.getBoolean(Shell.STATS_PROPERTY)) {
+			this.stats.print(System.out);
+		}
+	}
+
+	private void convert(String imageName) {
+		Shell shell = new Shell(this.outputDir.resolve(baseName(imageName)).toString(), null,
+				new PrintStream(OutputStream.nullOutputStream()), this.stats);
+		try {
+			shell.load(imageName);
+			for (String line : this.script) {
+				if (!shell.execute(line)) {
+					break;
+				}
+			}
+			this.converted.incrementAndGet();
+		} catch (IOException e) {
+			reportFailure(imageName, e.getMessage());
+		} catch (UncheckedIOException e) {
+			reportFailure(imageName, e.getCause().getMessage());
+		} catch (CustomException e) {
+			reportFailure(imageName, e.getMessage());
+		} catch (RuntimeException e) {
+			// A bug or a malformed image must fail only its own image, both on
+			// the workers and on the submitting thread under CallerRunsPolicy.
+			reportFailure(imageName, e.toString());
+		} finally {
+			shell.close();
+		}
+	}
+
+	private void reportFailure(String imageName, String message) {
+		this.failed.incrementAndGet();
+		System.err.println(imageName + ERROR_SEPARATOR + message);
+	}
+
+	private static String baseName(String imageName) {
+		String name = Paths.get(imageName).getFileName().toString();
+		int dot = name.lastIndexOf(EXTENSION_DOT);
+		return dot > 0 ? name.substring(0, dot) : name;
+	}
+
+	private static List<String> listImages(String[] paths) {
+		List<String> imageNames = new ArrayList<>();
+		for (String path : paths) {
+			File file = new File(path);
+			File[] children = file.listFiles(File::isFile);
+			if (children == null) {
+				imageNames.add(path);
+				continue;
+			}
+			Arrays.sort(children);
+			for (File child : children) {
+				imageNames.add(child.getPath());
+			}
+		}
+		return imageNames;
+	}
+
+	/**
+	 * Main entry point for batch conversion.
+	 * @param args The script file, the output directory, and the images
+	 *             or directories of images to convert.
+	 * @throws IOException If the script cannot be read or the output
+	 * directory cannot be created.
+	 * @throws InterruptedException If interrupted while converting.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length <= FIRST_IMAGE_ARG) {
+			System.out.println(USAGE_MESSAGE);
+			return;
+		}
+		List<String> script = new ArrayList<>();
+		for (String line : Files.readAllLines(Paths.get(args[SCRIPT_ARG]))) {
+			if (!line.isBlank() && !line.strip().equals(EXIT)) {
+				script.add(line.strip());
+			}
+		}
+		Path outputDir = Files.createDirectories(Paths.get(args[OUTPUT_DIR_ARG]));
+		int workers = Integer.getInteger(WORKERS_PROPERTY, Runtime.getRuntime().availableProcessors());
+		new BatchConverter(script, outputDir, workers).convertAll(
+				listImages(Arrays.copyOfRange(args, FIRST_IMAGE_ARG, args.length)));
+		GlyphCache.getDefault().save();
+	}
+}
@@ -0,0 +1,222 @@
+package ascii_art;
+
+import image.BrightnessSource;
+import image.ImageManipulator;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A bounded least-recently-used cache of sub-image brightness grids.
+ * Grids are keyed by the fingerprint of the image they were computed from
+ * together with the resolution, so alternating between resolutions or
+ * between images does not evict useful entries, and grids of one image are
+ * never returned for another.
+ * The cache is bounded by an approximate memory budget in bytes. When a
+ * requested grid is missing but a finer grid of the same image is cached,
+ * the requested grid is derived from it by averaging 2x2 blocks, weighted
+ * by the areas of their sub-images, instead of rescanning the image.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see AsciiArtAlgorithm
+ */
+public class BrightnessCache {
+	private static final int ENTRY_OVERHEAD_BYTES = 64;
+	private static final int ROW_OVERHEAD_BYTES = 16;
+	private static final int BYTES_PER_BRIGHTNESS = Double.BYTES;
+	private static final int BLOCK_SIZE = 2;
+	private final LinkedHashMap<Key, double[][]> grids = new LinkedHashMap<>(16, 0.75f, true);
+	private long maxBytes;
+	private long usedBytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long derivations = 0;
+
+	/**
+	 * Constructs an empty cache.
+	 * @param maxBytes The approximate number of bytes the cached grids
+	 *                 may occupy.
+	 */
+	public BrightnessCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Gets the brightness grid of an image at a given resolution.
+	 * If the grid itself is not cached, it is derived from the closest
+	 * cached finer grid of the same image, if there is one.
+	 * @param image      The image.
+	 * @param resolution The resolution of the grid.
+	 * @return The cached or derived grid, or {@code null} on a miss.
+	 */
+	public double[][] get(BrightnessSource image, int resolution) {
+		return get(image.getFingerprint(), image, resolution);
+	}
+
+	private synchronized double[][] get(long imageKey, BrightnessSource image, int resolution) {
+		double[][] grid = this.grids.get(new Key(imageKey, resolution));
+		if (grid != null) {
+			this.hits++;
+			return grid;
+		}
+		grid = deriveFromFinerGrid(imageKey, image, resolution);
+		if (grid != null) {
+			this.derivations++;
+			put(imageKey, resolution, grid);
+			return grid;
+		}
+		this.misses++;
+		return null;
+	}
+
+	/**
+	 * Checks whether the brightness grid of an image at a given resolution
+	 * is cached, deriving and storing it first if a finer grid of the same
+	 * image is cached. Unlike {@link #get(BrightnessSource, int)}, the check
+	 * is not counted as a request.
+	 * @param image      The image.
+	 * @param resolution The resolution of the grid.
+	 * @return {@code true} if the grid is now cached.
+	 */
+	public boolean containsOrDerive(BrightnessSource image, int resolution) {
+		return containsOrDerive(image.getFingerprint(), image, resolution);
+	}
+
+	private synchronized boolean containsOrDerive(long imageKey, BrightnessSource image, int resolution) {
+		if (this.grids.containsKey(new Key(imageKey, resolution))) {
+			return true;
+		}
+		double[][] grid = deriveFromFinerGrid(imageKey, image, resolution);
+		if (grid != null) {
+			put(imageKey, resolution, grid);
+		}
+		return grid != null;
+	}
+
+	/**
+	 * Stores the brightness grid of an image at a given resolution,
+	 * evicting the least recently used grids if the budget is exceeded.
+	 * @param image      The image.
+	 * @param resolution The resolution of the grid.
+	 * @param grid       The grid to store.
+	 */
+	public void put(BrightnessSource image, int resolution, double[][] grid) {
+		put(image.getFingerprint(), resolution, grid);
+	}
+
+	private synchronized void put(long imageKey, int resolution, double[][] grid) {
+		double[][] previous = this.grids.put(new Key(imageKey, resolution), grid);
+		if (previous != null) {
+			this.usedBytes -= sizeOf(previous);
+		}
+		this.usedBytes += sizeOf(grid);
+		evictOverBudget();
+	}
+
+	/**
+	 * Changes the memory budget of the cache, evicting grids if needed.
+	 * @param maxBytes The approximate number of bytes the cached grids
+	 *                 may occupy.
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evictOverBudget();
+	}
+
+	/**
+	 * Removes every grid from the cache. The counters are kept.
+	 */
+	public synchronized void clear() {
+		this.grids.clear();
+		this.usedBytes = 0;
+	}
+
+	/**
+	 * Gets the number of requests answered by a cached grid.
+	 * @return The number of hits.
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * Gets the number of requests answered by averaging a finer grid.
+	 * @return The number of derived grids.
+	 */
+	public synchronized long getDerivations() {
+		return this.derivations;
+	}
+
+	/**
+	 * Gets the number of requests that could not be answered.
+	 * @return The number of misses.
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	/**
+	 * Gets the approximate number of bytes used by the cached grids.
+	 * @return The used bytes.
+	 */
+	public synchronized long getUsedBytes() {
+		return this.usedBytes;
+	}
+
+	private double[][] deriveFromFinerGrid(long imageKey, BrightnessSource image, int resolution) {
+		// No grid is finer than one sub-image per pixel column.
+		for (int finer = resolution * BLOCK_SIZE; finer > resolution && finer <= image.getWidth();
+			 finer *= BLOCK_SIZE) {
+			double[][] fineGrid = this.grids.get(new Key(imageKey, finer));
+			if (fineGrid != null) {
+				double[][] grid = fineGrid;
+				for (int res = finer; res > resolution && grid != null; res /= BLOCK_SIZE) {
+					grid = ImageManipulator.halveResolution(grid, image.getWidth(), image.getHeight());
+				}
+				return grid;
+			}
+		}
+		return null;
+	}
+
+	private void evictOverBudget() {
+		Iterator<Map.Entry<Key, double[][]>> eldest = this.grids.entrySet().iterator();
+		while (this.usedBytes > this.maxBytes && eldest.hasNext()) {
+			this.usedBytes -= sizeOf(eldest.next().getValue());
+			eldest.remove();
+		}
+	}
+
+	private static long sizeOf(double[][] grid) {
+		long bytes = ENTRY_OVERHEAD_BYTES;
+		for (double[] row : grid) {
+			bytes += ROW_OVERHEAD_BYTES + (long) row.length * BYTES_PER_BRIGHTNESS;
+		}
+		return bytes;
+	}
+
+	private static final class Key {
+		private final long imageKey;
+		private final int resolution;
+
+		private Key(long imageKey, int resolution) {
+			this.imageKey = imageKey;
+			this.resolution = resolution;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return this.imageKey == key.imageKey && this.resolution == key.resolution;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.imageKey, this.resolution);
+		}
+	}
+}
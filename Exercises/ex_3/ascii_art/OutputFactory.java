@@ -2,8 +2,13 @@ package ascii_art;
 
 import ascii_art.exceptions.OutputFormatException;
 import ascii_output.AsciiOutput;
+import ascii_output.ColorHtmlAsciiOutput;
 import ascii_output.ConsoleAsciiOutput;
 import ascii_output.HtmlAsciiOutput;
+import ascii_output.StreamingHtmlAsciiOutput;
+import ascii_output.TextFileAsciiOutput;
+
+import java.nio.channels.WritableByteChannel;
 
 /**
  * The OutputFactory class is responsible for creating instances
@@ -12,6 +17,9 @@ import ascii_output.HtmlAsciiOutput;
  * based on the specified format (HTML or Console).
  * Supported formats include:
  * - HTML: Outputs ASCII art to an HTML file.
+ * - Streamed HTML: Streams ASCII art to an HTML file row by row.
+ * - Colored HTML: Streams ASCII art to an HTML file in the colors of the image.
+ * - Text: Streams ASCII art to a plain-text file row by row.
  * - Console: Outputs ASCII art directly to the console.
  * This class uses the Factory design pattern to encapsulate
  * the instantiation logic.
@@ -19,7 +27,12 @@ import ascii_output.HtmlAsciiOutput;
  */
 public class OutputFactory {
 	private static final String HTML = "html";
-	private static final String OUTPUT_FILE_NAME = "out.html";
+	private static final String OUTPUT_NAME = "out";
+	private static final String HTML_EXTENSION = ".html";
+	private static final String HTML_STREAM = "htmlstream";
+	private static final String HTML_COLOR = "htmlcolor";
+	private static final String TEXT = "text";
+	private static final String TEXT_EXTENSION = ".txt";
 	private static final String OUTPUT_FONT = "Courier New";
 	private static final String CONSOLE = "console";
 	
@@ -29,16 +42,67 @@ public class OutputFactory {
 	 * Factory method to create an instance of AsciiOutput
 	 * based on the specified output format.
 	 * @param output The desired output format.
-	 *               Supported values are "html" and "console".
+	 *               Supported values are "html", "htmlstream", "htmlcolor",
+	 *               "text" and "console".
 	 * @return An instance of AsciiOutput corresponding to
 	 * the specified format.
 	 * @throws OutputFormatException If the specified format is not supported.
 	 */
 	public static AsciiOutput getOutputMethod(String output) throws OutputFormatException {
+		return getOutputMethod(output, OUTPUT_NAME);
+	}
+
+	/**
+	 * Factory method to create an instance of AsciiOutput
+	 * based on the specified output format, naming the files it
+	 * writes after the given name.
+	 * @param output     The desired output format.
+	 *                   Supported values are "html", "htmlstream", "htmlcolor",
+	 *                   "text" and "console".
+	 * @param outputName The name, without extension, of the output file.
+	 * @return An instance of AsciiOutput corresponding to
+	 * the specified format.
+	 * @throws OutputFormatException If the specified format is not supported.
+	 */
+	public static AsciiOutput getOutputMethod(String output, String outputName)
+			throws OutputFormatException {
 		return switch (output) {
-			case HTML -> new HtmlAsciiOutput(OUTPUT_FILE_NAME, OUTPUT_FONT);
+			case HTML -> getFileOutputMethod(outputName);
+			case HTML_STREAM -> new StreamingHtmlAsciiOutput(outputName + HTML_EXTENSION, OUTPUT_FONT);
+			case HTML_COLOR -> new ColorHtmlAsciiOutput(outputName + HTML_EXTENSION, OUTPUT_FONT);
+			case TEXT -> new TextFileAsciiOutput(outputName + TEXT_EXTENSION);
 			case CONSOLE -> new ConsoleAsciiOutput();
 			default -> throw new OutputFormatException();
 		};
 	}
+
+	/**
+	 * Factory method to create an instance of AsciiOutput writing to a
+	 * channel instead of a file, such as the body of a network response.
+	 * @param output  The desired output format.
+	 *                Supported values are "html", "htmlstream", "htmlcolor"
+	 *                and "text"; both HTML formats stream.
+	 * @param channel The channel the art is written to.
+	 * @return An instance of AsciiOutput corresponding to
+	 * the specified format.
+	 * @throws OutputFormatException If the specified format is not supported.
+	 */
+	public static AsciiOutput getChannelOutputMethod(String output, WritableByteChannel channel)
+			throws OutputFormatException {
+		return switch (output) {
+			case HTML, HTML_STREAM -> new StreamingHtmlAsciiOutput(channel, OUTPUT_FONT);
+			case HTML_COLOR -> new ColorHtmlAsciiOutput(channel, OUTPUT_FONT);
+			case TEXT -> new TextFileAsciiOutput(channel);
+			default -> throw new OutputFormatException();
+		};
+	}
+
+	/**
+	 * Factory method to create the default file output.
+	 * @param outputName The name, without extension, of the output file.
+	 * @return An instance of AsciiOutput writing to that file.
+	 */
+	public static AsciiOutput getFileOutputMethod(String outputName) {
+		return new HtmlAsciiOutput(outputName + HTML_EXTENSION, OUTPUT_FONT);
+	}
 }
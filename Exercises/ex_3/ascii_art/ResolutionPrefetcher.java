@@ -0,0 +1,134 @@
+package ascii_art;
+
+import image.BrightnessSource;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Speculatively computes the brightness grids of the resolutions next to
+ * the one last rendered, on a background thread, and stores them in the
+ * {@link BrightnessCache} of {@link AsciiArtAlgorithm}.
+ * The shell only doubles or halves the resolution, so after a render the
+ * next one almost always needs one of these two grids. The finer grid is
+ * computed first: once it is cached, every coarser grid is derived from it
+ * by the cache, so the coarser neighbour only needs work when it cannot be
+ * derived.
+ * Pending grids are cancelled when the image changes, or when the
+ * resolution moves away from them. Cancelling interrupts the background
+ * thread, which makes the image abandon the grid between rows or stripes,
+ * and a grid finished after its cancellation is not cached. A render of a
+ * grid that is still being computed waits for it instead of computing it
+ * again.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see Shell
+ */
+class ResolutionPrefetcher {
+	private static final int RESOLUTION_FACTOR = 2;
+	private static final String THREAD_NAME = "resolution-prefetcher";
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, THREAD_NAME);
+		// Speculative work never keeps the shell from exiting, and yields to
+		// the renders the user is waiting for.
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	});
+	private final Map<Integer, Future<?>> pending = new HashMap<>();
+	private BrightnessSource image = null;
+
+	/**
+	 * Schedules the grids of both neighbours of a resolution that was just
+	 * rendered, cancelling any other pending grids.
+	 * @param image         The image that was rendered.
+	 * @param resolution    The resolution that was rendered.
+	 * @param minResolution The smallest resolution the shell allows.
+	 * @param maxResolution The largest resolution the shell allows.
+	 */
+	void prefetchNeighbours(BrightnessSource image, int resolution, int minResolution, int maxResolution) {
+		cancelAll();
+		this.image = image;
+		if (resolution * RESOLUTION_FACTOR <= maxResolution) {
+			submit(resolution * RESOLUTION_FACTOR);
+		}
+		if (resolution / RESOLUTION_FACTOR >= minResolution) {
+			submit(resolution / RESOLUTION_FACTOR);
+		}
+	}
+
+	/**
+	 * Waits until the grid of the given resolution is cached, if it is
+	 * being computed in the background for the given image.
+	 * @param image      The image about to be rendered.
+	 * @param resolution The resolution about to be rendered.
+	 */
+	void await(BrightnessSource image, int resolution) {
+		Future<?> future = image == this.image ? this.pending.get(resolution) : null;
+		if (future == null) {
+			return;
+		}
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (CancellationException | ExecutionException e) {
+			// The render computes the grid itself.
+		}
+	}
+
+	/**
+	 * Cancels the pending grids of every resolution but the given one,
+	 * after the resolution changed.
+	 * @param resolution The new resolution, whose grid is kept.
+	 */
+	void retainOnly(int resolution) {
+		Iterator<Map.Entry<Integer, Future<?>>> entries = this.pending.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<Integer, Future<?>> entry = entries.next();
+			if (entry.getKey() != resolution) {
+				entry.getValue().cancel(true);
+				entries.remove();
+			}
+		}
+	}
+
+	/**
+	 * Cancels every pending grid, after the image changed.
+	 */
+	void cancelAll() {
+		for (Future<?> future : this.pending.values()) {
+			future.cancel(true);
+		}
+		this.pending.clear();
+		this.image = null;
+	}
+
+	/**
+	 * Cancels every pending grid and stops the background thread. The
+	 * prefetcher cannot be used afterwards.
+	 */
+	void close() {
+		cancelAll();
+		this.executor.shutdownNow();
+	}
+
+	private void submit(int resolution) {
+		BrightnessSource source = this.image;
+		BrightnessCache cache = AsciiArtAlgorithm.getBrightnessCache();
+		this.pending.put(resolution, this.executor.submit(() -> {
+			if (Thread.currentThread().isInterrupted() || cache.containsOrDerive(source, resolution)) {
+				return;
+			}
+			double[][] brightnesses = source.getSubImageBrightnesses(resolution, null);
+			if (!Thread.currentThread().isInterrupted()) {
+				cache.put(source, resolution, brightnesses);
+			}
+		}));
+	}
+}
@@ -2,15 +2,27 @@ package ascii_art;
 
 import ascii_art.exceptions.*;
 import ascii_output.AsciiOutput;
+import ascii_output.ColorAsciiOutput;
 import ascii_output.ConsoleAsciiOutput;
+import image.BrightnessSource;
 import image.Image;
 import image.ImageManipulator;
+import image.RasterCache;
+import image.StripedImageReader;
+import image.SubsampledImage;
+import image_char_matching.GlyphCache;
 import image_char_matching.SubImgCharMatcher;
 
+import java.awt.Dimension;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Represents a command-line interface for generating
@@ -20,12 +32,57 @@ import java.util.List;
  * resolution, and generate ASCII art output.
  * It interacts with various subsystems
  * such as image manipulation, character matching, and output rendering.
+ * Setting the {@value #PARALLELISM_PROPERTY} system property to more than
+ * one runs the algorithm on a {@link ForkJoinPool} of that many workers.
+ * Images with more pixels than the {@value #STREAMING_THRESHOLD_PROPERTY}
+ * system property are never loaded whole, they are decoded in stripes by a
+ * {@link StripedImageReader} every time new brightnesses are needed.
+ * Setting the {@value #SUBSAMPLE_PROPERTY} system property decodes other
+ * images through a {@link SubsampledImage}, only in as much detail as the
+ * resolution needs for that many pixels along each side of a sub-image.
+ * Setting the {@value #PREFETCH_PROPERTY} system property to {@code true}
+ * computes the brightnesses of the resolutions next to the rendered one
+ * in the background, so that the next render after a resolution change
+ * finds them cached.
+ * {@code res up} and {@code res down} double and halve the resolution of
+ * the image padded to powers of two. {@code res} followed by a number sets
+ * any resolution up to the width of the image, and divides the image as it
+ * is, without padding it, into sub-images that differ in size by at most a
+ * pixel. Doubling and halving then keep working on the unpadded image.
+ * The {@code stats} command reports the time and memory spent in every
+ * stage of the conversion, and the hit rates of the caches. Setting the
+ * {@value #STATS_PROPERTY} system property to {@code true} prints that
+ * report when the shell exits.
  * @author Rotem Israeli, Nadav Benjamin
  * @see SubImgCharMatcher
  * @see ImageManipulator
  * @see AsciiOutput
  */
 public class Shell {
+	/**
+	 * The system property holding the number of workers used to run the algorithm.
+	 */
+	public static final String PARALLELISM_PROPERTY = "ascii.parallelism";
+	private static final int DEFAULT_PARALLELISM = 1;
+	/**
+	 * The system property holding the number of pixels above which images are streamed.
+	 * Images loaded whole keep a summed-area table of 8 bytes per pixel.
+	 */
+	public static final String STREAMING_THRESHOLD_PROPERTY = "ascii.streamingPixels";
+	private static final long DEFAULT_STREAMING_THRESHOLD = 1L << 27;
+	/**
+	 * The system property holding the smallest number of decoded pixels
+	 * along each side of a sub-image, for decoding images subsampled.
+	 */
+	public static final String SUBSAMPLE_PROPERTY = "ascii.subsampleSamples";
+	/**
+	 * The system property enabling speculative computation of neighbouring resolutions.
+	 */
+	public static final String PREFETCH_PROPERTY = "ascii.prefetch";
+	/**
+	 * The system property enabling the stage statistics report on exit.
+	 */
+	public static final String STATS_PROPERTY = "ascii.stats";
 	private static final int DEFAULT_RESOLUTION = 2;
 	private static final char[] INITIAL_CHARSET = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9'};
 	private static final String PRE_INPUT_MESSAGE = ">>> ";
@@ -36,13 +93,31 @@ public class Shell {
 	private static final String RES = "res";
 	private static final String ROUND = "round";
 	private static final String OUTPUT = "output";
+	private static final String MATCH = "match";
+	private static final String MATCH_BRIGHTNESS = "brightness";
+	private static final String MATCH_SHAPE = "shape";
 	private static final String ASCII_ART = "asciiArt";
+	private static final String STATS = "stats";
 	private static final int SINGLE_CHAR = 1;
 	private static final int ALL_OR_RANGE = 3;
 	private static final int SPACE_LENGTH = 5;
 	private static final char MIN_ASCII_VALUE = 32;
 	private static final char MAX_ASCII_VALUE = 126;
 	private static final String ALL = "all";
+	private static final String BLOCK_ELEMENTS = "blocks";
+	private static final char BLOCK_ELEMENTS_FIRST = '\u2580';
+	private static final char BLOCK_ELEMENTS_LAST = '\u259F';
+	private static final String BRAILLE = "braille";
+	private static final char BRAILLE_FIRST = '\u2800';
+	private static final char BRAILLE_LAST = '\u28FF';
+	private static final String BOX_DRAWING = "box";
+	private static final char BOX_DRAWING_FIRST = '\u2500';
+	private static final char BOX_DRAWING_LAST = '\u257F';
+	private static final Pattern CODE_POINT_RANGE =
+			Pattern.compile("[Uu]\\+(\\p{XDigit}{4})(?:-[Uu]\\+(\\p{XDigit}{4}))?");
+	private static final int RANGE_START_GROUP = 1;
+	private static final int RANGE_END_GROUP = 2;
+	private static final int HEX_RADIX = 16;
 	private static final int FIRST_CHAR = 0;
 	private static final int MIDDLE_CHAR = 1;
 	private static final int LAST_CHAR = 2;
@@ -54,20 +129,63 @@ public class Shell {
 	private static final int RESOLUTION_FACTOR = 2;
 	private static final int MIN_CHAR_COUNT = 2;
 	private static final String SET_RESOLUTION_MESSAGE = "Resolution set to ";
+	private static final String SKIPPED_CHARS_FORMAT = "Characters skipped, since the glyph font cannot display them: %d%n";
 	private final SubImgCharMatcher subImgCharMatcher;
+	private final ForkJoinPool pool;
+	private final String outputName;
+	private final PrintStream messages;
+	private final ResolutionPrefetcher prefetcher;
+	private final StageStats stats;
 	private AsciiOutput outputMethod;
+	private BrightnessSource paddedImage;
+	private BrightnessSource unpaddedImage;
+	private boolean padded = true;
 	private int currResolution;
 	private int maxResolution;
 	private int minResolution;
+	private boolean matchByShape = false;
 
 	/**
 	 * Constructs a new Shell with default settings.
 	 * Initializes the character matcher, output method, and resolution.
 	 */
 	public Shell() {
+		this(null, createPool(), System.out);
+	}
+
+	/**
+	 * Constructs a Shell that is driven by commands instead of the keyboard.
+	 * @param outputName The name, without extension, of the files written by
+	 *                   file outputs. When given, output starts as such a
+	 *                   file instead of the console.
+	 * @param pool       The pool to run the algorithm on, or {@code null}.
+	 * @param messages   The stream that command feedback is printed to.
+	 */
+	Shell(String outputName, ForkJoinPool pool, PrintStream messages) {
+		this(outputName, pool, messages, new StageStats());
+	}
+
+	/**
+	 * Constructs a Shell that is driven by commands and adds the cost of
+	 * its stages to the given statistics.
+	 * @param outputName The name, without extension, of the files written by
+	 *                   file outputs. When given, output starts as such a
+	 *                   file instead of the console.
+	 * @param pool       The pool to run the algorithm on, or {@code null}.
+	 * @param messages   The stream that command feedback is printed to.
+	 * @param stats      The statistics of the stages, which may be shared
+	 *                   with other shells.
+	 */
+	Shell(String outputName, ForkJoinPool pool, PrintStream messages, StageStats stats) {
 		this.subImgCharMatcher = new SubImgCharMatcher(INITIAL_CHARSET);
-		this.outputMethod = new ConsoleAsciiOutput();
+		this.outputName = outputName;
+		this.outputMethod = outputName == null ? new ConsoleAsciiOutput() :
+									OutputFactory.getFileOutputMethod(outputName);
 		this.currResolution = DEFAULT_RESOLUTION;
+		this.pool = pool;
+		this.messages = messages;
+		this.prefetcher = Boolean.getBoolean(PREFETCH_PROPERTY) ? new ResolutionPrefetcher() : null;
+		this.stats = stats;
 	}
 
 
@@ -78,66 +196,190 @@ public class Shell {
 	 * @param imageName The path to the image file to process.
 	 */
 	public void run(String imageName) {
-		Image paddedImage;
 		try {
-			paddedImage = ImageManipulator.padImage(new Image(imageName));
+			load(imageName);
 		} catch (IOException e) {
 			System.out.println(e.getMessage());
+			close();
 			return;
 		}
-		this.maxResolution = paddedImage.getWidth();
-		this.minResolution = Math.max(1, paddedImage.getWidth() / paddedImage.getHeight());
-		boolean running = true;
-		while (running) {
-			System.out.print(PRE_INPUT_MESSAGE);
-			String[] input = KeyboardInput.readLine().split(" ");
-			try {
-				switch (input[0]) {
-					case EXIT:
-						running = false;
-						break;
-					case CHARS:
-						printChars();
-						break;
-					case ADD:
-						addChars(input.length == 1 ? "" : input[1]);
-						break;
-					case REMOVE:
-						removeChars(input.length == 1 ? "" : input[1]);
-						break;
-					case RES:
-						changeRes(input.length == 1 ? "" : input[1]);
-						break;
-					case ROUND:
-						this.subImgCharMatcher.changeRoundingStrategy(input.length == 1 ? "" : input[1]);
-						break;
-					case OUTPUT:
-						this.outputMethod = OutputFactory.getOutputMethod(input.length == 1 ? "" : input[1]);
-						break;
-					case ASCII_ART:
-						if (this.subImgCharMatcher.getCharSet().size() < MIN_CHAR_COUNT) {
-							throw new SmallCharsetException();
-						}
-						AsciiArtAlgorithm algorithm = new AsciiArtAlgorithm(this.subImgCharMatcher,
-								this.currResolution, paddedImage);
-						this.outputMethod.out(algorithm.run());
-						break;
-					default:
-						throw new IncorrectCommandException();
+		try {
+			boolean running = true;
+			while (running) {
+				System.out.print(PRE_INPUT_MESSAGE);
+				try {
+					running = execute(KeyboardInput.readLine());
+				} catch (CustomException e) {
+					System.out.println(e.getMessage());
+				} catch (UncheckedIOException e) {
+					System.out.println(e.getCause().getMessage());
+				} catch (IllegalArgumentException e) {
+					System.out.println(e.getMessage());
 				}
-			} catch (CustomException e) {
-				System.out.println(e.getMessage());
 			}
+			if (Boolean.getBoolean(STATS_PROPERTY)) {
+				this.stats.print(System.out);
+			}
+			try {
+				GlyphCache.getDefault().save();
+			} catch (IOException e) {
+				// The glyph cache only saves time, the next run renders the glyphs again.
+			}
+		} finally {
+			close();
 		}
 	}
-	
+
+	/**
+	 * Releases the threads of this shell: stops the background thread of
+	 * the prefetcher, if any, and shuts down the pool of the algorithm.
+	 * The shell cannot execute commands afterwards.
+	 */
+	void close() {
+		if (this.prefetcher != null) {
+			this.prefetcher.close();
+		}
+		if (this.pool != null) {
+			this.pool.shutdown();
+		}
+	}
+
+	/**
+	 * Loads the image that later commands operate on.
+	 * @param imageName The path to the image file to process.
+	 * @throws IOException If the file cannot be read or is not a valid image.
+	 */
+	void load(String imageName) throws IOException {
+		if (this.prefetcher != null) {
+			this.prefetcher.cancelAll();
+		}
+		loadImage(imageName);
+		updateResolutionBounds();
+	}
+
+	private void updateResolutionBounds() {
+		BrightnessSource image = currentImage();
+		this.maxResolution = image.getWidth();
+		this.minResolution = this.padded ? Math.max(1, image.getWidth() / image.getHeight()) : 1;
+	}
+
+	private BrightnessSource currentImage() {
+		return this.padded ? this.paddedImage : this.unpaddedImage;
+	}
+
+	/**
+	 * Executes a single command on the loaded image.
+	 * @param line The command, as the user would type it.
+	 * @return {@code false} if the command was exit, {@code true} otherwise.
+	 * @throws CustomException If the command is invalid or cannot be executed.
+	 */
+	boolean execute(String line) throws CustomException {
+		String[] input = line.split(" ");
+		switch (input[0]) {
+			case EXIT:
+				return false;
+			case CHARS:
+				printChars();
+				break;
+			case ADD:
+				addChars(input.length == 1 ? "" : input[1]);
+				break;
+			case REMOVE:
+				removeChars(input.length == 1 ? "" : input[1]);
+				break;
+			case RES:
+				changeRes(input.length == 1 ? "" : input[1]);
+				break;
+			case ROUND:
+				this.subImgCharMatcher.changeRoundingStrategy(input.length == 1 ? "" : input[1]);
+				break;
+			case OUTPUT:
+				this.outputMethod = this.outputName == null ?
+											OutputFactory.getOutputMethod(input.length == 1 ? "" : input[1]) :
+											OutputFactory.getOutputMethod(input.length == 1 ? "" : input[1],
+													this.outputName);
+				break;
+			case MATCH:
+				changeMatching(input.length == 1 ? "" : input[1]);
+				break;
+			case ASCII_ART:
+				if (this.subImgCharMatcher.getCharSet().size() < MIN_CHAR_COUNT) {
+					throw new SmallCharsetException();
+				}
+				AsciiArtAlgorithm algorithm = new AsciiArtAlgorithm(this.subImgCharMatcher,
+						this.currResolution, currentImage(), this.pool);
+				algorithm.setStats(this.stats);
+				if (this.outputMethod instanceof ColorAsciiOutput colorOutput) {
+					algorithm.runInColor(colorOutput, this.matchByShape);
+				} else if (this.matchByShape) {
+					output(algorithm.runByShape());
+				} else {
+					runByBrightness(algorithm);
+				}
+				break;
+			case STATS:
+				this.stats.print(this.messages);
+				break;
+			default:
+				throw new IncorrectCommandException();
+		}
+		return true;
+	}
+
+	private static ForkJoinPool createPool() {
+		int parallelism = Integer.getInteger(PARALLELISM_PROPERTY, DEFAULT_PARALLELISM);
+		return parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+	}
+
+	private void loadImage(String imageName) throws IOException {
+		Dimension size = StripedImageReader.readSize(imageName);
+		if ((long) size.width * size.height > Long.getLong(STREAMING_THRESHOLD_PROPERTY,
+				DEFAULT_STREAMING_THRESHOLD)) {
+			StripedImageReader reader = this.stats.measure(StageStats.Stage.DECODE,
+					() -> new StripedImageReader(imageName));
+			this.paddedImage = reader;
+			this.unpaddedImage = reader.withoutPadding();
+			return;
+		}
+		int minSamples = Integer.getInteger(SUBSAMPLE_PROPERTY, 0);
+		if (minSamples > 0) {
+			// Decoding is deferred to the first render, which knows how much detail it needs.
+			SubsampledImage image = new SubsampledImage(imageName, minSamples);
+			this.paddedImage = image;
+			this.unpaddedImage = image.withoutPadding();
+			return;
+		}
+		Image image = this.stats.measure(StageStats.Stage.DECODE, () -> RasterCache.loadImage(imageName));
+		this.paddedImage = this.stats.measure(StageStats.Stage.PAD_IMAGE,
+				() -> ImageManipulator.padImage(image));
+		this.unpaddedImage = image;
+	}
+
+	private void output(char[][] chars) {
+		this.stats.measure(StageStats.Stage.OUTPUT, () -> {
+			this.outputMethod.out(chars);
+			return null;
+		});
+	}
+
+	private void runByBrightness(AsciiArtAlgorithm algorithm) {
+		if (this.prefetcher == null) {
+			output(algorithm.run());
+			return;
+		}
+		this.prefetcher.await(currentImage(), this.currResolution);
+		output(algorithm.run());
+		this.prefetcher.prefetchNeighbours(currentImage(), this.currResolution, this.minResolution,
+				this.maxResolution);
+	}
+
 	private void printChars() {
 		List<Character> charsList = new ArrayList<>(this.subImgCharMatcher.getCharSet());
 		Collections.sort(charsList);
 		for (Character character : charsList) {
-			System.out.print(character + " ");
+			this.messages.print(character + " ");
 		}
-		System.out.println();
+		this.messages.println();
 	}
 
 
@@ -150,34 +392,85 @@ public class Shell {
 		shell.run(args[0]);
 	}
 	
-	private boolean checkCharInRange(char c) {
-		return (c >= MIN_ASCII_VALUE && c <= MAX_ASCII_VALUE);
+	/**
+	 * Checks whether a character can be matched: it is printable and the
+	 * glyph font can display it.
+	 * @param c The character.
+	 * @return Whether the character can be added to the character set.
+	 */
+	static boolean checkCharInRange(char c) {
+		return isPrintable(c) && GlyphCache.getDefault().canDisplay(c);
 	}
-	
+
+	private static boolean isPrintable(char c) {
+		return c >= MIN_ASCII_VALUE && !Character.isISOControl(c) && !Character.isSurrogate(c)
+					   && Character.isDefined(c);
+	}
+
+	/**
+	 * Parses a named Unicode character set ({@code blocks}, {@code braille}
+	 * or {@code box}) or a range of code points such as
+	 * {@code U+2580-U+259F}.
+	 * @param charset The name or range.
+	 * @return The printable characters of the set, including those the
+	 * glyph font cannot display, or {@code null} if the argument is
+	 * neither a name nor a range.
+	 */
+	static List<Character> parseUnicodeCharset(String charset) {
+		switch (charset) {
+			case BLOCK_ELEMENTS:
+				return charRange(BLOCK_ELEMENTS_FIRST, BLOCK_ELEMENTS_LAST);
+			case BRAILLE:
+				return charRange(BRAILLE_FIRST, BRAILLE_LAST);
+			case BOX_DRAWING:
+				return charRange(BOX_DRAWING_FIRST, BOX_DRAWING_LAST);
+			default:
+				Matcher range = CODE_POINT_RANGE.matcher(charset);
+				if (!range.matches()) {
+					return null;
+				}
+				char first = (char) Integer.parseInt(range.group(RANGE_START_GROUP), HEX_RADIX);
+				char last = range.group(RANGE_END_GROUP) == null ? first :
+									(char) Integer.parseInt(range.group(RANGE_END_GROUP), HEX_RADIX);
+				return charRange((char) Math.min(first, last), (char) Math.max(first, last));
+		}
+	}
+
+	private static List<Character> charRange(char first, char last) {
+		List<Character> chars = new ArrayList<>();
+		for (char c = first; c <= last && c >= first; c++) {
+			if (isPrintable(c)) {
+				chars.add(c);
+			}
+		}
+		return chars;
+	}
+
 	private void addChars(String charsToAdd) throws AddFormatException {
+		List<Character> unicodeCharset = parseUnicodeCharset(charsToAdd);
+		if (unicodeCharset != null) {
+			addDisplayable(unicodeCharset);
+			return;
+		}
 		switch (charsToAdd.length()) {
 			case SINGLE_CHAR:
-				if (checkCharInRange(charsToAdd.charAt(FIRST_CHAR))) {
-					this.subImgCharMatcher.addChar(charsToAdd.charAt(FIRST_CHAR));
+				if (isPrintable(charsToAdd.charAt(FIRST_CHAR))) {
+					addDisplayable(List.of(charsToAdd.charAt(FIRST_CHAR)));
 				} else {
 					throw new AddFormatException();
 				}
 				break;
 			case ALL_OR_RANGE:
 				if (charsToAdd.equals(ALL)) {
-					for (char c = MIN_ASCII_VALUE; c <= MAX_ASCII_VALUE; c++) {
-						this.subImgCharMatcher.addChar(c);
-					}
+					addDisplayable(charRange(MIN_ASCII_VALUE, MAX_ASCII_VALUE));
 				} else if (charsToAdd.charAt(MIDDLE_CHAR) == RANGE_DASH &&
-								   checkCharInRange(charsToAdd.charAt(FIRST_CHAR)) &&
-								   checkCharInRange(charsToAdd.charAt(LAST_CHAR))) {
+								   isPrintable(charsToAdd.charAt(FIRST_CHAR)) &&
+								   isPrintable(charsToAdd.charAt(LAST_CHAR))) {
 					char smallerChar = charsToAdd.charAt(FIRST_CHAR) < charsToAdd.charAt(LAST_CHAR) ?
 											   charsToAdd.charAt(FIRST_CHAR) : charsToAdd.charAt(LAST_CHAR);
 					char biggerChar = charsToAdd.charAt(FIRST_CHAR) < charsToAdd.charAt(LAST_CHAR) ?
 											  charsToAdd.charAt(LAST_CHAR) : charsToAdd.charAt(FIRST_CHAR);
-					for (char c = smallerChar; c <= biggerChar; c++) {
-						this.subImgCharMatcher.addChar(c);
-					}
+					addDisplayable(charRange(smallerChar, biggerChar));
 				} else {
 					throw new AddFormatException();
 				}
@@ -194,16 +487,26 @@ public class Shell {
 		}
 	}
 	
+	private void addDisplayable(List<Character> chars) {
+		int skipped = this.subImgCharMatcher.addChars(chars);
+		if (skipped > 0) {
+			this.messages.printf(SKIPPED_CHARS_FORMAT, skipped);
+		}
+	}
+
 	private void removeChars(String charsToRemove) throws RemoveFormatException {
+		List<Character> unicodeCharset = parseUnicodeCharset(charsToRemove);
+		if (unicodeCharset != null) {
+			this.subImgCharMatcher.removeChars(unicodeCharset);
+			return;
+		}
 		switch (charsToRemove.length()) {
 			case SINGLE_CHAR:
 				this.subImgCharMatcher.removeChar(charsToRemove.charAt(FIRST_CHAR));
 				break;
 			case ALL_OR_RANGE:
 				if (charsToRemove.equals(ALL)) {
-					for (char c = MIN_ASCII_VALUE; c <= MAX_ASCII_VALUE; c++) {
-						this.subImgCharMatcher.removeChar(c);
-					}
+					this.subImgCharMatcher.removeChars(charRange(MIN_ASCII_VALUE, MAX_ASCII_VALUE));
 				} else if (charsToRemove.charAt(MIDDLE_CHAR) == RANGE_DASH) {
 					char smallerChar = charsToRemove.charAt(FIRST_CHAR) < charsToRemove.charAt(LAST_CHAR) ?
 											   charsToRemove.charAt(FIRST_CHAR) :
@@ -211,9 +514,7 @@ public class Shell {
 					char biggerChar = charsToRemove.charAt(FIRST_CHAR) < charsToRemove.charAt(LAST_CHAR) ?
 											  charsToRemove.charAt(LAST_CHAR) :
 											  charsToRemove.charAt(FIRST_CHAR);
-					for (char c = smallerChar; c <= biggerChar; c++) {
-						this.subImgCharMatcher.removeChar(c);
-					}
+					this.subImgCharMatcher.removeChars(charRange(smallerChar, biggerChar));
 				} else {
 					throw new RemoveFormatException();
 				}
@@ -230,16 +531,45 @@ public class Shell {
 		}
 	}
 	
+	private void changeMatching(String matching) throws MatchFormatException {
+		switch (matching) {
+			case MATCH_BRIGHTNESS -> this.matchByShape = false;
+			case MATCH_SHAPE -> this.matchByShape = true;
+			default -> throw new MatchFormatException();
+		}
+	}
+
 	private void changeRes(String direction) throws CustomException {
-		if (direction.equals(UP) && this.currResolution < this.maxResolution) {
+		if (direction.equals(UP) && this.currResolution * RESOLUTION_FACTOR <= this.maxResolution) {
 			this.currResolution *= RESOLUTION_FACTOR;
-		} else if (direction.equals(DOWN) && this.currResolution > this.minResolution) {
+		} else if (direction.equals(DOWN) && this.currResolution / RESOLUTION_FACTOR >= this.minResolution) {
 			this.currResolution /= RESOLUTION_FACTOR;
 		} else if (direction.equals(UP) || direction.equals(DOWN)) {
 			throw new ResolutionBoundaryException();
 		} else if (!direction.isEmpty()) {
+			setExactResolution(direction);
+		}
+		if (this.prefetcher != null) {
+			this.prefetcher.retainOnly(this.currResolution);
+		}
+		this.messages.println(SET_RESOLUTION_MESSAGE + this.currResolution);
+	}
+
+	private void setExactResolution(String value) throws CustomException {
+		int resolution;
+		try {
+			resolution = Integer.parseInt(value);
+		} catch (NumberFormatException e) {
 			throw new ResolutionFormatException();
 		}
-		System.out.println(SET_RESOLUTION_MESSAGE + this.currResolution);
+		if (resolution < 1 || resolution > this.unpaddedImage.getWidth()) {
+			throw new ResolutionBoundaryException();
+		}
+		if (this.padded && this.prefetcher != null) {
+			this.prefetcher.cancelAll();
+		}
+		this.padded = false;
+		this.currResolution = resolution;
+		updateResolutionBounds();
 	}
 }
@@ -0,0 +1,177 @@
+package ascii_art;
+
+import image.RasterCache;
+import image_char_matching.GlyphCache;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Accumulates the cost of every stage of the conversion, so the stage to
+ * tune can be found on real workloads without attaching a profiler.
+ * Every measured stage records its wall time, together with the CPU time
+ * and the bytes allocated by the thread running it, as counted by the JVM.
+ * Work done for a stage by the workers of a {@link ForkJoinPool} or by a
+ * background thread shows in its wall time only. Workers are not counted,
+ * since a pool may serve several shells at once, so stages that ran on a
+ * pool are marked as measuring wall time only.
+ * The report also shows how often each cache answered a request.
+ * Statistics may be shared by shells running on several threads.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see Shell
+ */
+public class StageStats {
+	/**
+	 * The stages of a conversion that are measured.
+	 */
+	public enum Stage {
+		/**
+		 * Decoding the image file, or mapping its cached raster.
+		 */
+		DECODE("decode"),
+		/**
+		 * Padding the image to powers of two.
+		 */
+		PAD_IMAGE("padImage"),
+		/**
+		 * Measuring the brightness, color or shape of every sub-image.
+		 */
+		BRIGHTNESS("brightness"),
+		/**
+		 * Matching every sub-image to a character.
+		 */
+		CHAR_MAPPING("charMapping"),
+		/**
+		 * Writing the art to the output.
+		 */
+		OUTPUT("output");
+
+		private final String label;
+
+		Stage(String label) {
+			this.label = label;
+		}
+	}
+
+	/**
+	 * A piece of work whose cost is recorded.
+	 * @param <T> The type of the result of the work.
+	 * @param <E> The type of exception the work may throw.
+	 */
+	@FunctionalInterface
+	public interface Work<T, E extends Exception> {
+		/**
+		 * Does the work.
+		 * @return The result of the work.
+		 * @throws E If the work fails.
+		 */
+		T run() throws E;
+	}
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	private static final double NANOS_PER_MILLI = 1e6;
+	private static final double BYTES_PER_MEGABYTE = 1024.0 * 1024;
+	private static final double PERCENT = 100;
+	private static final String HEADER_FORMAT = "%-12s %8s %12s %12s %12s%n";
+	private static final String STAGE_FORMAT = "%-12s %8d %12.1f %12.1f %12.1f%s%n";
+	private static final String PARALLEL_MARK = "  parallel: wall only";
+	private static final String[] HEADER = {"Stage", "calls", "wall ms", "cpu ms", "alloc MB"};
+	private static final String BRIGHTNESS_CACHE_FORMAT =
+			"Brightness cache: %d hits, %d derived, %d misses (%.1f%% answered), %.1f MB used%n";
+	private static final String GLYPH_CACHE_FORMAT = "Glyph cache: %d hits, %d misses (%.1f%% hits)%n";
+	private static final String RASTER_CACHE_FORMAT = "Raster cache: %d hits, %d misses (%.1f%% hits)%n";
+	private static final String RASTER_CACHE_DISABLED = "Raster cache: disabled";
+	private final long[] calls = new long[Stage.values().length];
+	private final long[] wallNanos = new long[Stage.values().length];
+	private final long[] cpuNanos = new long[Stage.values().length];
+	private final long[] allocatedBytes = new long[Stage.values().length];
+	private final boolean[] parallel = new boolean[Stage.values().length];
+
+	/**
+	 * Does a piece of work and adds its cost to a stage.
+	 * @param stage The stage the work belongs to.
+	 * @param work  The work to do.
+	 * @param <T>   The type of the result of the work.
+	 * @param <E>   The type of exception the work may throw.
+	 * @return The result of the work.
+	 * @throws E If the work fails. Its cost is recorded anyway.
+	 */
+	public <T, E extends Exception> T measure(Stage stage, Work<T, E> work) throws E {
+		return measure(stage, null, work);
+	}
+
+	/**
+	 * Does a piece of work that may run partly on a pool and adds its cost
+	 * to a stage. If it may, the stage is marked as measuring wall time
+	 * only, since the CPU time and allocations of the workers are missing.
+	 * @param stage The stage the work belongs to.
+	 * @param pool  The pool the work may run on, or {@code null} if it
+	 *              runs on the calling thread only.
+	 * @param work  The work to do.
+	 * @param <T>   The type of the result of the work.
+	 * @param <E>   The type of exception the work may throw.
+	 * @return The result of the work.
+	 * @throws E If the work fails. Its cost is recorded anyway.
+	 */
+	public <T, E extends Exception> T measure(Stage stage, ForkJoinPool pool, Work<T, E> work) throws E {
+		long cpuBefore = THREADS.getCurrentThreadCpuTime();
+		long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+		long start = System.nanoTime();
+		try {
+			return work.run();
+		} finally {
+			long wall = System.nanoTime() - start;
+			long cpu = THREADS.getCurrentThreadCpuTime() - cpuBefore;
+			long allocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+			record(stage, wall, cpu, allocated, pool != null);
+		}
+	}
+
+	/**
+	 * Prints the cost of every stage and the hit rates of the caches.
+	 * @param out The stream the report is printed to.
+	 */
+	public void print(PrintStream out) {
+		out.printf(HEADER_FORMAT, (Object[]) HEADER);
+		synchronized (this) {
+			for (Stage stage : Stage.values()) {
+				int i = stage.ordinal();
+				out.printf(STAGE_FORMAT, stage.label, this.calls[i], this.wallNanos[i] / NANOS_PER_MILLI,
+						this.cpuNanos[i] / NANOS_PER_MILLI, this.allocatedBytes[i] / BYTES_PER_MEGABYTE,
+						this.parallel[i] ? PARALLEL_MARK : "");
+			}
+		}
+		BrightnessCache brightnessCache = AsciiArtAlgorithm.getBrightnessCache();
+		long hits = brightnessCache.getHits();
+		long derivations = brightnessCache.getDerivations();
+		long misses = brightnessCache.getMisses();
+		out.printf(BRIGHTNESS_CACHE_FORMAT, hits, derivations, misses,
+				percent(hits + derivations, hits + derivations + misses),
+				brightnessCache.getUsedBytes() / BYTES_PER_MEGABYTE);
+		GlyphCache glyphCache = GlyphCache.getDefault();
+		out.printf(GLYPH_CACHE_FORMAT, glyphCache.getHits(), glyphCache.getMisses(),
+				percent(glyphCache.getHits(), glyphCache.getHits() + glyphCache.getMisses()));
+		RasterCache rasterCache = RasterCache.getDefault();
+		if (rasterCache == null) {
+			out.println(RASTER_CACHE_DISABLED);
+		} else {
+			out.printf(RASTER_CACHE_FORMAT, rasterCache.getHits(), rasterCache.getMisses(),
+					percent(rasterCache.getHits(), rasterCache.getHits() + rasterCache.getMisses()));
+		}
+	}
+
+	private synchronized void record(Stage stage, long wall, long cpu, long allocated, boolean onPool) {
+		int i = stage.ordinal();
+		this.parallel[i] |= onPool;
+		this.calls[i]++;
+		this.wallNanos[i] += wall;
+		this.cpuNanos[i] += cpu;
+		this.allocatedBytes[i] += allocated;
+	}
+
+	private static double percent(long part, long total) {
+		return total == 0 ? 0 : part * PERCENT / total;
+	}
+}
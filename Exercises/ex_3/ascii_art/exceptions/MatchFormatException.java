@@ -0,0 +1,24 @@
+package ascii_art.exceptions;
+
+/**
+ * Exception thrown when an attempt to change the matching method fails
+ * due to an incorrect format.
+ * The {@code MatchFormatException} extends {@link FormatException}
+ * and provides a specific error message indicating the reason for the failure.
+ * This exception is used to ensure that invalid matching method
+ * formats are handled gracefully.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see FormatException
+ */
+public class MatchFormatException extends FormatException {
+	private static final String MESSAGE =
+			"Did not change matching method due to incorrect format";
+
+	/**
+	 * Constructs a new {@code MatchFormatException} with a predefined
+	 * error message.
+	 */
+	public MatchFormatException() {
+		super(MESSAGE);
+	}
+}
@@ -0,0 +1,16 @@
+package ascii_output;
+
+/**
+ * An output that can show every character of the ASCII art in its own
+ * color, in addition to plain ASCII art.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see ColorHtmlAsciiOutput
+ */
+public interface ColorAsciiOutput extends AsciiOutput {
+	/**
+	 * Outputs the given ASCII art in color.
+	 * @param chars  The ASCII art, row by row.
+	 * @param colors The color of every character, as {@code 0xRRGGBB}.
+	 */
+	void out(char[][] chars, int[][] colors);
+}
@@ -0,0 +1,127 @@
+package ascii_output;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streams colored ASCII art to an HTML file.
+ * Colors are quantized to 16 levels per channel and written as short
+ * {@code #rgb} CSS colors. Adjacent characters of the same quantized color,
+ * including across line breaks, share a single {@code span}, and spaces
+ * never start a new one since their color cannot be seen. Characters in the
+ * default black need no span at all. This keeps the file small and quick
+ * to render even at high resolutions.
+ * Without colors, the art is written in black like
+ * {@link StreamingHtmlAsciiOutput}.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see StreamingHtmlAsciiOutput
+ */
+public class ColorHtmlAsciiOutput extends StreamingHtmlAsciiOutput implements ColorAsciiOutput {
+	private static final String SPAN_START = "<span style=\"color:#";
+	private static final String SPAN_START_END = "\">";
+	private static final String SPAN_END = "</span>";
+	private static final char LINE_BREAK = '\n';
+	private static final char SPACE = ' ';
+	private static final int DEFAULT_COLOR = 0x000;
+	private static final int NO_SPAN = -1;
+	private static final int MAX_CHANNEL = 255;
+	private static final int MAX_LEVEL = 15;
+	private static final int ROUNDING = MAX_CHANNEL / 2;
+	private static final int[] CHANNEL_SHIFTS = {16, 8, 0};
+	private static final int CHANNEL_MASK = 0xFF;
+	private static final int LEVEL_BITS = 4;
+	private static final int HEX_RADIX = 16;
+	private int[][] colors = null;
+	private int row = 0;
+	private int spanColor = NO_SPAN;
+
+	/**
+	 * Constructs an output writing to the given HTML file.
+	 * @param fileName The path of the file, replaced on every output.
+	 * @param fontName The font the art is shown in.
+	 */
+	public ColorHtmlAsciiOutput(String fileName, String fontName) {
+		super(fileName, fontName);
+	}
+
+	/**
+	 * Constructs an output writing colored HTML documents to the given channel.
+	 * @param channel  The channel the art is written to.
+	 * @param fontName The font the art is shown in.
+	 */
+	public ColorHtmlAsciiOutput(WritableByteChannel channel, String fontName) {
+		super(channel, fontName);
+	}
+
+	/**
+	 * Writes the given ASCII art to the file in color, replacing its content.
+	 * @param chars  The ASCII art, row by row.
+	 * @param colors The color of every character, as {@code 0xRRGGBB}.
+	 * @throws java.io.UncheckedIOException If the file cannot be written.
+	 */
+	@Override
+	public void out(char[][] chars, int[][] colors) {
+		this.colors = colors;
+		try {
+			out(chars);
+		} finally {
+			this.colors = null;
+		}
+	}
+
+	@Override
+	protected void writeHeader() throws IOException {
+		super.writeHeader();
+		this.row = 0;
+		this.spanColor = NO_SPAN;
+	}
+
+	@Override
+	protected void writeRow(char[] row) throws IOException {
+		if (this.colors == null) {
+			super.writeRow(row);
+			return;
+		}
+		int[] rowColors = this.colors[this.row++];
+		for (int i = 0; i < row.length; i++) {
+			if (row[i] != SPACE) {
+				switchColor(quantize(rowColors[i]));
+			}
+			writeEscaped(row[i]);
+		}
+		write(LINE_BREAK);
+	}
+
+	@Override
+	protected void writeFooter() throws IOException {
+		switchColor(DEFAULT_COLOR);
+		super.writeFooter();
+	}
+
+	private void switchColor(int color) throws IOException {
+		int span = color == DEFAULT_COLOR ? NO_SPAN : color;
+		if (span == this.spanColor) {
+			return;
+		}
+		if (this.spanColor != NO_SPAN) {
+			write(SPAN_END);
+		}
+		if (span != NO_SPAN) {
+			write(SPAN_START);
+			for (int shift = (CHANNEL_SHIFTS.length - 1) * LEVEL_BITS; shift >= 0; shift -= LEVEL_BITS) {
+				write(Character.forDigit((span >> shift) & MAX_LEVEL, HEX_RADIX));
+			}
+			write(SPAN_START_END);
+		}
+		this.spanColor = span;
+	}
+
+	private static int quantize(int rgb) {
+		int color = 0;
+		for (int shift : CHANNEL_SHIFTS) {
+			int channel = (rgb >> shift) & CHANNEL_MASK;
+			color = (color << LEVEL_BITS) | (channel * MAX_LEVEL + ROUNDING) / MAX_CHANNEL;
+		}
+		return color;
+	}
+}
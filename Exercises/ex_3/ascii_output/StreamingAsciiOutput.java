@@ -0,0 +1,185 @@
+package ascii_output;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Base class for outputs that stream ASCII art to a file, or to any other
+ * channel, row by row.
+ * Text is encoded through a fixed-size character buffer and byte buffer
+ * that are reused for every row and every call to {@link #out(char[][])},
+ * and bytes reach the file only when the byte buffer is full. Writing a
+ * large render therefore needs constant extra memory and few system calls,
+ * no matter how many rows it has.
+ * Subclasses define what is written before, between and after the rows.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see TextFileAsciiOutput
+ * @see StreamingHtmlAsciiOutput
+ */
+public abstract class StreamingAsciiOutput implements AsciiOutput {
+	private static final int BUFFER_SIZE = 1 << 16;
+	private final Path path;
+	private final WritableByteChannel target;
+	private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+	private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+	private WritableByteChannel channel;
+
+	/**
+	 * Constructs an output writing to the given file.
+	 * @param fileName The path of the file, replaced on every output.
+	 */
+	protected StreamingAsciiOutput(String fileName) {
+		this.path = Paths.get(fileName);
+		this.target = null;
+	}
+
+	/**
+	 * Constructs an output writing to the given channel, such as the body
+	 * of a network response. Every output is appended to the channel,
+	 * which is left open.
+	 * @param channel The channel the art is written to.
+	 */
+	protected StreamingAsciiOutput(WritableByteChannel channel) {
+		this.path = null;
+		this.target = channel;
+	}
+
+	/**
+	 * Writes the given ASCII art to the file, replacing its content, or
+	 * to the channel of this output.
+	 * @param chars The ASCII art, row by row.
+	 * @throws UncheckedIOException If the file or channel cannot be written.
+	 */
+	@Override
+	public void out(char[][] chars) {
+		if (this.target != null) {
+			try {
+				writeAll(chars, this.target);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			writeAll(chars, channel);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void writeAll(char[][] chars, WritableByteChannel channel) throws IOException {
+		try {
+			this.channel = channel;
+			this.encoder.reset();
+			writeHeader();
+			for (char[] row : chars) {
+				writeRow(row);
+			}
+			writeFooter();
+			flush();
+		} finally {
+			this.channel = null;
+			this.chars.clear();
+			this.bytes.clear();
+		}
+	}
+
+	/**
+	 * Writes whatever comes before the first row.
+	 * @throws IOException If the file cannot be written.
+	 */
+	protected abstract void writeHeader() throws IOException;
+
+	/**
+	 * Writes a single row, including its line break.
+	 * @param row The characters of the row.
+	 * @throws IOException If the file cannot be written.
+	 */
+	protected abstract void writeRow(char[] row) throws IOException;
+
+	/**
+	 * Writes whatever comes after the last row.
+	 * @throws IOException If the file cannot be written.
+	 */
+	protected abstract void writeFooter() throws IOException;
+
+	/**
+	 * Appends a character to the buffered output.
+	 * @param c The character to write.
+	 * @throws IOException If the file cannot be written.
+	 */
+	protected final void write(char c) throws IOException {
+		if (!this.chars.hasRemaining()) {
+			encodeBuffered(false);
+		}
+		this.chars.put(c);
+	}
+
+	/**
+	 * Appends characters to the buffered output.
+	 * @param text The characters to write.
+	 * @throws IOException If the file cannot be written.
+	 */
+	protected final void write(char[] text) throws IOException {
+		int offset = 0;
+		while (offset < text.length) {
+			if (!this.chars.hasRemaining()) {
+				encodeBuffered(false);
+			}
+			int length = Math.min(this.chars.remaining(), text.length - offset);
+			this.chars.put(text, offset, length);
+			offset += length;
+		}
+	}
+
+	/**
+	 * Appends a string to the buffered output.
+	 * @param text The text to write.
+	 * @throws IOException If the file cannot be written.
+	 */
+	protected final void write(String text) throws IOException {
+		for (int i = 0; i < text.length(); i++) {
+			write(text.charAt(i));
+		}
+	}
+
+	private void flush() throws IOException {
+		encodeBuffered(true);
+		this.encoder.flush(this.bytes);
+		drainBytes();
+	}
+
+	private void encodeBuffered(boolean endOfInput) throws IOException {
+		this.chars.flip();
+		CoderResult result;
+		do {
+			result = this.encoder.encode(this.chars, this.bytes, endOfInput);
+			if (result.isOverflow()) {
+				drainBytes();
+			} else if (result.isError()) {
+				result.throwException();
+			}
+		} while (result.isOverflow());
+		this.chars.compact();
+	}
+
+	private void drainBytes() throws IOException {
+		this.bytes.flip();
+		while (this.bytes.hasRemaining()) {
+			this.channel.write(this.bytes);
+		}
+		this.bytes.clear();
+	}
+}
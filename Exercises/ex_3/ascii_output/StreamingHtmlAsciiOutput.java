@@ -0,0 +1,78 @@
+package ascii_output;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streams ASCII art to an HTML file, row by row, without building the
+ * document in memory.
+ * Characters that have a meaning in HTML are escaped, and the art is
+ * shown in a preformatted block in the given font.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see StreamingAsciiOutput
+ */
+public class StreamingHtmlAsciiOutput extends StreamingAsciiOutput {
+	private static final String HEADER_START = "<!DOCTYPE html>\n<html>\n<head>\n"
+			+ "<meta charset=\"UTF-8\">\n<title>ASCII Art</title>\n</head>\n"
+			+ "<body style=\"background-color:white;\">\n"
+			+ "<pre style=\"font-family:'";
+	private static final String HEADER_END = "'; font-size:8px; line-height:8px; color:black;\">\n";
+	private static final String FOOTER = "</pre>\n</body>\n</html>\n";
+	private static final char LINE_BREAK = '\n';
+	private final String fontName;
+
+	/**
+	 * Constructs an output writing to the given HTML file.
+	 * @param fileName The path of the file, replaced on every output.
+	 * @param fontName The font the art is shown in.
+	 */
+	public StreamingHtmlAsciiOutput(String fileName, String fontName) {
+		super(fileName);
+		this.fontName = fontName;
+	}
+
+	/**
+	 * Constructs an output writing HTML documents to the given channel.
+	 * @param channel  The channel the art is written to.
+	 * @param fontName The font the art is shown in.
+	 */
+	public StreamingHtmlAsciiOutput(WritableByteChannel channel, String fontName) {
+		super(channel);
+		this.fontName = fontName;
+	}
+
+	@Override
+	protected void writeHeader() throws IOException {
+		write(HEADER_START);
+		write(this.fontName);
+		write(HEADER_END);
+	}
+
+	@Override
+	protected void writeRow(char[] row) throws IOException {
+		for (char c : row) {
+			writeEscaped(c);
+		}
+		write(LINE_BREAK);
+	}
+
+	@Override
+	protected void writeFooter() throws IOException {
+		write(FOOTER);
+	}
+
+	/**
+	 * Writes a character, escaping it if it has a meaning in HTML.
+	 * @param c The character to write.
+	 * @throws IOException If the file cannot be written.
+	 */
+	protected void writeEscaped(char c) throws IOException {
+		switch (c) {
+			case '&' -> write("&amp;");
+			case '<' -> write("&lt;");
+			case '>' -> write("&gt;");
+			case '"' -> write("&quot;");
+			default -> write(c);
+		}
+	}
+}
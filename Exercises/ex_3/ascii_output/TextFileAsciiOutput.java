@@ -0,0 +1,43 @@
+package ascii_output;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streams ASCII art to a plain-text file, one line per row.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see StreamingAsciiOutput
+ */
+public class TextFileAsciiOutput extends StreamingAsciiOutput {
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+
+	/**
+	 * Constructs an output writing to the given text file.
+	 * @param fileName The path of the file, replaced on every output.
+	 */
+	public TextFileAsciiOutput(String fileName) {
+		super(fileName);
+	}
+
+	/**
+	 * Constructs an output writing plain text to the given channel.
+	 * @param channel The channel the art is written to.
+	 */
+	public TextFileAsciiOutput(WritableByteChannel channel) {
+		super(channel);
+	}
+
+	@Override
+	protected void writeHeader() {
+	}
+
+	@Override
+	protected void writeRow(char[] row) throws IOException {
+		write(row);
+		write(LINE_SEPARATOR);
+	}
+
+	@Override
+	protected void writeFooter() {
+	}
+}
@@ -0,0 +1,299 @@
+package benchmark;
+
+import ascii_art.AsciiArtAlgorithm;
+import ascii_art.exceptions.RoundingFormatException;
+import image.Image;
+import image.ImageManipulator;
+import image.StripedImageReader;
+import image_char_matching.SubImgCharMatcher;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Measures the stages of the image to ASCII art conversion in isolation,
+ * on synthetic images whose padded size ranges from 256x256 to 8192x8192
+ * pixels.
+ * The stages measured are decoding an image, loading it into an
+ * {@link Image}, building the summed-area table of the padded image,
+ * looking up sub-image brightnesses at every resolution the shell allows,
+ * matching brightnesses to characters and a whole run of
+ * {@link AsciiArtAlgorithm}, the last two with every rounding strategy.
+ * The input of every stage is built before it is measured, so a benchmark
+ * times only its own stage. Padding is a constant-time view, so it is not
+ * measured on its own.
+ * Decoding a file with a {@link StripedImageReader} is measured with
+ * several stripe counts. The file is decoded once whatever the stripe
+ * height, so the throughput should stay about the same as the count grows.
+ * Every benchmark first runs for a warmup period, so the JIT compiler
+ * settles, and then for a measurement period. Its throughput is reported
+ * together with the bytes it allocated, per operation and per second, as
+ * counted by the JVM for the running thread. Benchmarks run on a single
+ * thread, so that count covers all of their allocations.
+ * The sizes and periods can be set with the {@value #SIZES_PROPERTY},
+ * {@value #WARMUP_PROPERTY} and {@value #MEASUREMENT_PROPERTY} system
+ * properties, and only benchmarks whose name contains the filter argument
+ * are run. The largest images need a heap of about 4 GB.
+ * Usage: {@code AsciiArtBenchmark [filter]}
+ * @author Rotem Israeli, Nadav Benjamin
+ */
+public class AsciiArtBenchmark {
+	/**
+	 * The system property holding the padded image sizes, separated by commas.
+	 */
+	public static final String SIZES_PROPERTY = "ascii.bench.sizes";
+	/**
+	 * The system property holding the warmup period of every benchmark, in milliseconds.
+	 */
+	public static final String WARMUP_PROPERTY = "ascii.bench.warmupMillis";
+	/**
+	 * The system property holding the measurement period of every benchmark, in milliseconds.
+	 */
+	public static final String MEASUREMENT_PROPERTY = "ascii.bench.measureMillis";
+	private static final String DEFAULT_SIZES = "256,512,1024,2048,4096,8192";
+	private static final String SIZE_SEPARATOR = ",";
+	private static final long DEFAULT_WARMUP_MILLIS = 500;
+	private static final long DEFAULT_MEASUREMENT_MILLIS = 1000;
+	private static final String[] ROUNDING_STRATEGIES = {"abs", "up", "down"};
+	private static final char MIN_ASCII_VALUE = 32;
+	private static final char MAX_ASCII_VALUE = 126;
+	private static final int LOOKUPS_PER_OPERATION = 4096;
+	private static final long RANDOM_SEED = 42;
+	private static final int HEIGHT_NUMERATOR = 3;
+	private static final int HEIGHT_DENOMINATOR = 4;
+	private static final int RED_SHIFT = 16;
+	private static final int GREEN_SHIFT = 8;
+	private static final int CHANNEL_MASK = 0xFF;
+	private static final int RGB_MASK = 0xFFFFFF;
+	private static final int NOISE = 32;
+	private static final String IMAGE_FORMAT = "png";
+	private static final String DECODE = "decode";
+	private static final String STRIPED_DECODE = "stripedDecode";
+	private static final int[] STRIPE_COUNTS = {1, 8, 32, 128};
+	private static final String TEMP_PREFIX = "benchmark";
+	private static final String EXTENSION_SEPARATOR = ".";
+	private static final String LOAD = "load";
+	private static final String SUMMED_AREA_TABLE = "summedAreaTable";
+	private static final String BRIGHTNESSES = "brightnesses";
+	private static final String RUN = "run";
+	private static final String MATCHER_NAME_FORMAT = "getCharByImageBrightness x%d %s";
+	private static final String NAME_FORMAT = "%dx%d %s";
+	private static final String RESOLUTION_NAME_FORMAT = "%s res=%d";
+	private static final String STRATEGY_NAME_FORMAT = "%s %s";
+	private static final String STRIPES_NAME_FORMAT = "%s stripes=%d";
+	private static final int FILTER_ARG = 0;
+	private static final long NANOS_PER_MILLI = 1_000_000;
+	private static final double NANOS_PER_SECOND = 1e9;
+	private static final double BYTES_PER_MEGABYTE = 1024.0 * 1024;
+	private static final String HEADER_FORMAT = "%-40s %14s %14s %12s%n";
+	private static final String RESULT_FORMAT = "%-40s %14.1f %14.1f %12.1f%n";
+	private static final String[] HEADER = {"Benchmark", "ops/s", "B/op", "MB/s"};
+	private final com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	private final String filter;
+	private final long warmupNanos;
+	private final long measurementNanos;
+	private long sink = 0;
+
+	/**
+	 * An operation whose throughput is measured.
+	 */
+	@FunctionalInterface
+	private interface Operation {
+		/**
+		 * Runs the operation once.
+		 * @return A value derived from the result, so that the work
+		 * cannot be optimized away.
+		 * @throws Exception If the operation fails.
+		 */
+		long run() throws Exception;
+	}
+
+	/**
+	 * Constructs a benchmark runner.
+	 * @param filter           Only benchmarks whose name contains it are run.
+	 * @param warmupNanos      How long every benchmark runs before it is measured.
+	 * @param measurementNanos How long every benchmark is measured.
+	 */
+	public AsciiArtBenchmark(String filter, long warmupNanos, long measurementNanos) {
+		this.filter = filter;
+		this.warmupNanos = warmupNanos;
+		this.measurementNanos = measurementNanos;
+	}
+
+	/**
+	 * Runs every benchmark on a synthetic image of the given padded size.
+	 * @param size The width and height of the padded image.
+	 * @throws Exception If a benchmark fails.
+	 */
+	public void runAll(int size) throws Exception {
+		BufferedImage decoded = createImage(size, size * HEIGHT_NUMERATOR / HEIGHT_DENOMINATOR);
+		int width = decoded.getWidth();
+		int height = decoded.getHeight();
+		int[] pixels = decoded.getRGB(0, 0, width, height, null, 0, width);
+		for (int i = 0; i < pixels.length; i++) {
+			pixels[i] &= RGB_MASK;
+		}
+		Image padded = ImageManipulator.padImage(new Image(pixels, width, height));
+		if (matches(name(size, DECODE)) || matches(name(size, STRIPED_DECODE))) {
+			ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+			ImageIO.write(decoded, IMAGE_FORMAT, encoded);
+			byte[] bytes = encoded.toByteArray();
+			measure(name(size, DECODE), () -> ImageIO.read(new ByteArrayInputStream(bytes)).getRGB(0, 0));
+			measureStripedDecode(size, bytes, height);
+		}
+		measure(name(size, LOAD), () -> new Image(decoded).getRGB(0, 0));
+		// Wrapping the raster and padding are constant-time views, and a fresh
+		// image has no table yet, so only the table is built.
+		measure(name(size, SUMMED_AREA_TABLE), () -> ImageManipulator.getSubImageBrightnesses(
+				ImageManipulator.padImage(new Image(pixels, width, height)), 1).length);
+		int minResolution = Math.max(1, padded.getWidth() / padded.getHeight());
+		for (int resolution = minResolution; resolution <= padded.getWidth(); resolution *= 2) {
+			int res = resolution;
+			measure(name(size, BRIGHTNESSES, res), () ->
+					ImageManipulator.getSubImageBrightnesses(padded, res).length);
+			for (String strategy : ROUNDING_STRATEGIES) {
+				SubImgCharMatcher matcher = createMatcher(strategy);
+				measure(String.format(STRATEGY_NAME_FORMAT, name(size, RUN, res), strategy), () -> {
+					AsciiArtAlgorithm.getBrightnessCache().clear();
+					return new AsciiArtAlgorithm(matcher, res, padded).run().length;
+				});
+			}
+		}
+	}
+
+	/**
+	 * Runs the character matching benchmark of every rounding strategy,
+	 * matching random brightnesses against the full printable ASCII range.
+	 * @throws Exception If a benchmark fails.
+	 */
+	public void runMatcher() throws Exception {
+		double[] brightnesses = new Random(RANDOM_SEED).doubles(LOOKUPS_PER_OPERATION).toArray();
+		for (String strategy : ROUNDING_STRATEGIES) {
+			SubImgCharMatcher matcher = createMatcher(strategy);
+			measure(String.format(MATCHER_NAME_FORMAT, LOOKUPS_PER_OPERATION, strategy), () -> {
+				long sum = 0;
+				for (double brightness : brightnesses) {
+					sum += matcher.getCharByImageBrightness(brightness);
+				}
+				return sum;
+			});
+		}
+	}
+
+	/**
+	 * Measures decoding an encoded image file with a striped reader, once
+	 * for every stripe count.
+	 * @param size   The padded size of the image, for the benchmark names.
+	 * @param bytes  The encoded image.
+	 * @param height The height of the image.
+	 * @throws Exception If a benchmark fails.
+	 */
+	private void measureStripedDecode(int size, byte[] bytes, int height) throws Exception {
+		Path file = Files.createTempFile(TEMP_PREFIX, EXTENSION_SEPARATOR + IMAGE_FORMAT);
+		try {
+			Files.write(file, bytes);
+			for (int stripes : STRIPE_COUNTS) {
+				StripedImageReader reader = new StripedImageReader(file.toString(),
+						(height + stripes - 1) / stripes);
+				measure(String.format(STRIPES_NAME_FORMAT, name(size, STRIPED_DECODE), stripes),
+						() -> reader.getSubImageBrightnesses(1, null).length);
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	private void measure(String name, Operation operation) throws Exception {
+		if (!matches(name)) {
+			return;
+		}
+		long end = System.nanoTime() + this.warmupNanos;
+		while (System.nanoTime() < end) {
+			this.sink += operation.run();
+		}
+		long operations = 0;
+		long allocatedBefore = this.threads.getCurrentThreadAllocatedBytes();
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			this.sink += operation.run();
+			operations++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < this.measurementNanos);
+		long allocated = this.threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+		double seconds = elapsed / NANOS_PER_SECOND;
+		System.out.printf(RESULT_FORMAT, name, operations / seconds, (double) allocated / operations,
+				allocated / BYTES_PER_MEGABYTE / seconds);
+	}
+
+	private boolean matches(String name) {
+		return name.contains(this.filter);
+	}
+
+	private static String name(int size, String stage) {
+		return String.format(NAME_FORMAT, size, size, stage);
+	}
+
+	private static String name(int size, String stage, int resolution) {
+		return String.format(RESOLUTION_NAME_FORMAT, name(size, stage), resolution);
+	}
+
+	private static SubImgCharMatcher createMatcher(String strategy) throws RoundingFormatException {
+		SubImgCharMatcher matcher = new SubImgCharMatcher(new char[0]);
+		for (char c = MIN_ASCII_VALUE; c <= MAX_ASCII_VALUE; c++) {
+			matcher.addChar(c);
+		}
+		matcher.changeRoundingStrategy(strategy);
+		return matcher;
+	}
+
+	/**
+	 * Creates a smooth color gradient with some noise, so that every
+	 * resolution yields a range of brightnesses. The height is not a power
+	 * of two, so the image needs padding.
+	 * @param width  The width of the image.
+	 * @param height The height of the image.
+	 * @return The generated image.
+	 */
+	private static BufferedImage createImage(int width, int height) {
+		Random random = new Random(RANDOM_SEED);
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int red = x * CHANNEL_MASK / width;
+				int green = y * CHANNEL_MASK / height;
+				int blue = Math.min(CHANNEL_MASK, (red + green) / 2 + random.nextInt(NOISE));
+				row[x] = (red << RED_SHIFT) | (green << GREEN_SHIFT) | blue;
+			}
+			image.setRGB(0, y, width, 1, row, 0, width);
+		}
+		return image;
+	}
+
+	/**
+	 * Main entry point for running the benchmarks.
+	 * @param args Optionally, a filter that benchmark names must contain.
+	 * @throws Exception If a benchmark fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		AsciiArtBenchmark benchmark = new AsciiArtBenchmark(args.length > FILTER_ARG ? args[FILTER_ARG] : "",
+				Long.getLong(WARMUP_PROPERTY, DEFAULT_WARMUP_MILLIS) * NANOS_PER_MILLI,
+				Long.getLong(MEASUREMENT_PROPERTY, DEFAULT_MEASUREMENT_MILLIS) * NANOS_PER_MILLI);
+		System.out.printf(HEADER_FORMAT, (Object[]) HEADER);
+		benchmark.runMatcher();
+		for (String size : System.getProperty(SIZES_PROPERTY, DEFAULT_SIZES).split(SIZE_SEPARATOR)) {
+			benchmark.runAll(Integer.parseInt(size.strip()));
+		}
+		if (benchmark.sink == 0) {
+			System.out.println();
+		}
+	}
+}
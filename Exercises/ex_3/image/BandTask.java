@@ -0,0 +1,72 @@
+package image;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A fork/join task that splits a range of independent indices, such as
+ * image rows or rows of sub-images, into bands and processes the bands
+ * in parallel.
+ * Ranges are split in halves until each band is small enough to give
+ * every worker of the pool a few bands, which keeps the workers busy
+ * even when some bands are slower than others.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see ImageManipulator
+ */
+public class BandTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	private static final int BANDS_PER_WORKER = 4;
+	private static final int HALF = 2;
+	private final int from;
+	private final int to;
+	private final int threshold;
+	private final Band band;
+
+	/**
+	 * Processes one band of a range.
+	 */
+	@FunctionalInterface
+	public interface Band {
+		/**
+		 * Processes the indices in {@code [from, to)}.
+		 * @param from The first index of the band.
+		 * @param to   The index just after the band.
+		 */
+		void process(int from, int to);
+	}
+
+	private BandTask(int from, int to, int threshold, Band band) {
+		this.from = from;
+		this.to = to;
+		this.threshold = threshold;
+		this.band = band;
+	}
+
+	/**
+	 * Processes the indices in {@code [0, count)} in bands.
+	 * If no pool is given, or the pool has a single worker, the whole
+	 * range is processed as one band on the calling thread.
+	 * @param pool  The pool to run the bands on, or {@code null}.
+	 * @param count The number of indices.
+	 * @param band  The action applied to every band.
+	 */
+	public static void forEachBand(ForkJoinPool pool, int count, Band band) {
+		if (pool == null || pool.getParallelism() == 1 || count <= 1) {
+			band.process(0, count);
+			return;
+		}
+		int threshold = Math.max(1, count / (pool.getParallelism() * BANDS_PER_WORKER));
+		pool.invoke(new BandTask(0, count, threshold, band));
+	}
+
+	@Override
+	protected void compute() {
+		if (this.to - this.from <= this.threshold) {
+			this.band.process(this.from, this.to);
+			return;
+		}
+		int middle = (this.from + this.to) / HALF;
+		invokeAll(new BandTask(this.from, middle, this.threshold, this.band),
+				new BandTask(middle, this.to, this.threshold, this.band));
+	}
+}
@@ -0,0 +1,64 @@
+package image;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Something that can be divided into square sub-images and report the
+ * average brightness of each of them.
+ * Implemented by {@link Image}, which holds all of its pixels in memory,
+ * and by {@link StripedImageReader}, which streams them from a file.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see ImageManipulator
+ */
+public interface BrightnessSource {
+
+	/**
+	 * Gets the width of the source.
+	 * @return The width in pixels.
+	 */
+	int getWidth();
+
+	/**
+	 * Gets the height of the source.
+	 * @return The height in pixels.
+	 */
+	int getHeight();
+
+	/**
+	 * Gets a 64-bit hash identifying the pixels of the source,
+	 * to be used as a cache key for values derived from them.
+	 * @return The fingerprint of the source.
+	 */
+	long getFingerprint();
+
+	/**
+	 * Calculates the average brightness of every sub-image at the given
+	 * resolution.
+	 * @param resolution The number of sub-images along the width.
+	 * @param pool       The pool to compute on, or {@code null} to compute
+	 *                   on the calling thread.
+	 * @return A 2D array of brightness values for the sub-images.
+	 */
+	double[][] getSubImageBrightnesses(int resolution, ForkJoinPool pool);
+
+	/**
+	 * Calculates the average brightness and the average color of every
+	 * sub-image at the given resolution, in a single pass over the pixels.
+	 * @param resolution The number of sub-images along the width.
+	 * @param pool       The pool to compute on, or {@code null} to compute
+	 *                   on the calling thread.
+	 * @return The brightness and color of every sub-image.
+	 */
+	ColorGrid getSubImageColors(int resolution, ForkJoinPool pool);
+
+	/**
+	 * Thresholds every sub-image at the given resolution down to a square
+	 * black and white bitmap, packed like the bitmaps of glyphs.
+	 * @param resolution      The number of sub-images along the width.
+	 * @param shapeResolution The width and height of every bitmap.
+	 * @param pool            The pool to compute on, or {@code null} to
+	 *                        compute on the calling thread.
+	 * @return The packed bitmap of every sub-image.
+	 */
+	long[][][] getSubImageShapes(int resolution, int shapeResolution, ForkJoinPool pool);
+}
@@ -0,0 +1,103 @@
+package image;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Lets long computations on images be cancelled by interrupting their
+ * thread, as the shell does with speculative work it no longer needs.
+ * Computations check the interrupt flag between rows, bands and stripes
+ * and abandon their work by throwing a {@link CancellationException},
+ * leaving the flag set and caching nothing. Decoding is abandoned by
+ * aborting the image reader as soon as it reports progress.
+ * @author Rotem Israeli, Nadav Benjamin
+ */
+final class Cancellation {
+	private static final String CANCELLED_MESSAGE = "Interrupted, computation abandoned";
+
+	private Cancellation() {
+	}
+
+	/**
+	 * Abandons the computation running on the calling thread if the thread
+	 * was interrupted.
+	 * @throws CancellationException If the calling thread was interrupted.
+	 */
+	static void check() {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new CancellationException(CANCELLED_MESSAGE);
+		}
+	}
+
+	/**
+	 * Reads an image, aborting the read if the calling thread is interrupted
+	 * while it decodes.
+	 * @param reader     The reader, whose input is set.
+	 * @param imageIndex The index of the image to read.
+	 * @param param      The parameters of the read.
+	 * @return The decoded image.
+	 * @throws IOException           If the image cannot be decoded.
+	 * @throws CancellationException If the calling thread was interrupted.
+	 */
+	static BufferedImage read(ImageReader reader, int imageIndex, ImageReadParam param) throws IOException {
+		AbortOnInterrupt listener = new AbortOnInterrupt();
+		reader.addIIOReadProgressListener(listener);
+		BufferedImage image;
+		try {
+			image = reader.read(imageIndex, param);
+		} finally {
+			reader.removeIIOReadProgressListener(listener);
+		}
+		// An aborted read returns a partly decoded image.
+		check();
+		return image;
+	}
+
+	/**
+	 * Aborts the read it listens to once the reading thread is interrupted.
+	 */
+	private static final class AbortOnInterrupt implements IIOReadProgressListener {
+		@Override
+		public void imageProgress(ImageReader source, float percentageDone) {
+			if (Thread.currentThread().isInterrupted()) {
+				source.abort();
+			}
+		}
+
+		@Override
+		public void sequenceStarted(ImageReader source, int minIndex) {
+		}
+
+		@Override
+		public void sequenceComplete(ImageReader source) {
+		}
+
+		@Override
+		public void imageStarted(ImageReader source, int imageIndex) {
+		}
+
+		@Override
+		public void imageComplete(ImageReader source) {
+		}
+
+		@Override
+		public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+		}
+
+		@Override
+		public void thumbnailProgress(ImageReader source, float percentageDone) {
+		}
+
+		@Override
+		public void thumbnailComplete(ImageReader source) {
+		}
+
+		@Override
+		public void readAborted(ImageReader source) {
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package image;
+
+/**
+ * The average brightness and the average color of every sub-image of an
+ * image at some resolution, computed together in a single pass over the
+ * pixels.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see BrightnessSource#getSubImageColors(int, java.util.concurrent.ForkJoinPool)
+ */
+public final class ColorGrid {
+	private final double[][] brightnesses;
+	private final int[][] colors;
+
+	/**
+	 * Constructs a grid from its measured values.
+	 * @param brightnesses The brightness of every sub-image, between 0 and 1.
+	 * @param colors       The average color of every sub-image, as
+	 *                     {@code 0xRRGGBB}.
+	 */
+	ColorGrid(double[][] brightnesses, int[][] colors) {
+		this.brightnesses = brightnesses;
+		this.colors = colors;
+	}
+
+	/**
+	 * Gets the brightness of every sub-image.
+	 * @return A 2D array of brightness values, between 0 and 1.
+	 */
+	public double[][] getBrightnesses() {
+		return this.brightnesses;
+	}
+
+	/**
+	 * Gets the average color of every sub-image.
+	 * @return A 2D array of colors, as {@code 0xRRGGBB}.
+	 */
+	public int[][] getColors() {
+		return this.colors;
+	}
+}
@@ -1,39 +1,98 @@
 package image;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * A package-private class of the package image.
+ * Pixels are stored as packed RGB integers in a single row-major
+ * array, so no {@link Color} objects are created unless a caller
+ * explicitly asks for one through {@link #getPixel(int, int)}.
  *
  * @author Dan Nirel
  */
-public class Image {
-	
-	private final Color[][] pixelArray;
+public class Image implements BrightnessSource {
+	private static final int RGB_MASK = 0xFFFFFF;
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	private static final String UNSUPPORTED_FORMAT_MESSAGE = "Unsupported image format: ";
+	private static final int FIRST_IMAGE = 0;
+
+	private final int[] pixels;
 	private final int width;
 	private final int height;
+	private SummedAreaTable summedAreaTable;
+	private long fingerprint;
+	private boolean hasFingerprint = false;
 
 	/**
 	 * Constructs an {@code Image} by loading pixel data
 	 * from the specified file.
+	 * The decoded image is copied into the raster with a single
+	 * bulk {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)} call.
 	 * @param filename The path to the image file.
 	 * @throws IOException If the file cannot be read or
 	 * is not a valid image.
 	 */
 	public Image(String filename) throws IOException {
-		BufferedImage im = ImageIO.read(new File(filename));
+		this(ImageIO.read(new File(filename)));
+	}
+
+	/**
+	 * Constructs an {@code Image} by decoding only every
+	 * {@code subsampling}-th pixel of every {@code subsampling}-th row of
+	 * the specified file, through the source subsampling of an
+	 * {@link ImageReader}. The image is about {@code subsampling} times
+	 * narrower and lower than the file.
+	 * @param filename    The path to the image file.
+	 * @param subsampling The distance between decoded pixels, 1 to
+	 *                    decode every pixel.
+	 * @throws IOException If the file cannot be read or
+	 * is not a valid image.
+	 * @throws java.util.concurrent.CancellationException If the calling
+	 * thread is interrupted while decoding.
+	 */
+	public Image(String filename, int subsampling) throws IOException {
+		this(read(new File(filename), subsampling));
+	}
+
+	/**
+	 * Constructs an {@code Image} from an already decoded image.
+	 * The pixels are copied with a single bulk
+	 * {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)} call.
+	 * @param im The decoded image.
+	 */
+	public Image(BufferedImage im) {
 		width = im.getWidth();
 		height = im.getHeight();
-		
-		
-		pixelArray = new Color[height][width];
-		for (int i = 0; i < height; i++) {
-			for (int j = 0; j < width; j++) {
-				pixelArray[i][j] = new Color(im.getRGB(j, i));
+		pixels = im.getRGB(0, 0, width, height, null, 0, width);
+		for (int i = 0; i < pixels.length; i++) {
+			pixels[i] &= RGB_MASK;
+		}
+	}
+
+	private static BufferedImage read(File file, int subsampling) throws IOException {
+		try (ImageInputStream stream = ImageIO.createImageInputStream(file)) {
+			Iterator<ImageReader> readers = stream == null ? null : ImageIO.getImageReaders(stream);
+			if (readers == null || !readers.hasNext()) {
+				throw new IOException(UNSUPPORTED_FORMAT_MESSAGE + file);
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(stream, true, true);
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				return Cancellation.read(reader, FIRST_IMAGE, param);
+			} finally {
+				reader.dispose();
 			}
 		}
 	}
@@ -47,7 +106,43 @@ public class Image {
 	 * @param height     The height of the image in pixels.
 	 */
 	public Image(Color[][] pixelArray, int width, int height) {
-		this.pixelArray = pixelArray;
+		this.width = width;
+		this.height = height;
+		this.pixels = new int[width * height];
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col++) {
+				this.pixels[row * width + col] = pixelArray[row][col].getRGB() & RGB_MASK;
+			}
+		}
+	}
+
+	/**
+	 * Constructs an {@code Image} directly on top of a packed raster.
+	 * The array is used as is, without copying, and must not be
+	 * modified by the caller afterwards.
+	 * @param pixels A row-major array of packed RGB values
+	 *               ({@code 0xRRGGBB}) of length {@code width * height}.
+	 * @param width  The width of the image in pixels.
+	 * @param height The height of the image in pixels.
+	 */
+	public Image(int[] pixels, int width, int height) {
+		this.pixels = pixels;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Constructs an {@code Image} without a raster of its own, for views
+	 * that compute their pixels from another image.
+	 * Such views must override {@link #getRGB(int, int)} and
+	 * {@link #copyRow(int, int[], int)}, and may override
+	 * {@link #getSummedAreaTable(ForkJoinPool)} to share the table of
+	 * another image.
+	 * @param width  The width of the view in pixels.
+	 * @param height The height of the view in pixels.
+	 */
+	Image(int width, int height) {
+		this.pixels = null;
 		this.width = width;
 		this.height = height;
 	}
@@ -56,6 +151,7 @@ public class Image {
 	 * Gets the width of the image.
 	 * @return The width of the image in pixels.
 	 */
+	@Override
 	public int getWidth() {
 		return width;
 	}
@@ -64,18 +160,141 @@ public class Image {
 	 * Gets the height of the image.
 	 * @return The height of the image in pixels.
 	 */
+	@Override
 	public int getHeight() {
 		return height;
 	}
 
 	/**
 	 * Gets the color of the pixel at the specified coordinates.
+	 * A new {@link Color} is created on every call, prefer
+	 * {@link #getRGB(int, int)} or {@link #getRow(int, int[])} in loops.
 	 * @param x The x-coordinate of the pixel.
 	 * @param y The y-coordinate of the pixel.
 	 * @return The {@link Color} of the pixel at the specified coordinates.
 	 */
 	public Color getPixel(int x, int y) {
-		return pixelArray[x][y];
+		return new Color(getRGB(x, y));
+	}
+
+	/**
+	 * Gets the packed RGB value of the pixel at the specified coordinates.
+	 * Uses the same coordinate order as {@link #getPixel(int, int)}.
+	 * @param x The row of the pixel.
+	 * @param y The column of the pixel.
+	 * @return The pixel as {@code 0xRRGGBB}.
+	 */
+	public int getRGB(int x, int y) {
+		return pixels[x * width + y];
+	}
+
+	/**
+	 * Copies one row of packed RGB values into the given buffer.
+	 * @param row  The row to copy.
+	 * @param dest A buffer of at least {@link #getWidth()} entries,
+	 *             or {@code null} to allocate a new one.
+	 * @return The buffer holding the row.
+	 */
+	public int[] getRow(int row, int[] dest) {
+		if (dest == null) {
+			dest = new int[width];
+		}
+		copyRow(row, dest, 0);
+		return dest;
+	}
+
+	/**
+	 * Copies one row of packed RGB values into the given buffer,
+	 * starting at the given offset.
+	 * @param row    The row to copy.
+	 * @param dest   A buffer with room for {@link #getWidth()} entries
+	 *               after the offset.
+	 * @param offset The index in the buffer of the row's first pixel.
+	 */
+	void copyRow(int row, int[] dest, int offset) {
+		System.arraycopy(pixels, row * width, dest, offset, width);
+	}
+
+	/**
+	 * Calculates the brightness of every sub-image of this image.
+	 * @param resolution The number of sub-images along the width.
+	 * @param pool       The pool to compute on, or {@code null} to compute
+	 *                   on the calling thread.
+	 * @return A 2D array of brightness values for the sub-images.
+	 * @see ImageManipulator#getSubImageBrightnesses(Image, int, ForkJoinPool)
+	 */
+	@Override
+	public double[][] getSubImageBrightnesses(int resolution, ForkJoinPool pool) {
+		return ImageManipulator.getSubImageBrightnesses(this, resolution, pool);
+	}
+
+	/**
+	 * Calculates the brightness and the average color of every sub-image
+	 * of this image in a single pass.
+	 * @param resolution The number of sub-images along the width.
+	 * @param pool       The pool to compute on, or {@code null} to compute
+	 *                   on the calling thread.
+	 * @return The brightness and color of every sub-image.
+	 * @see ImageManipulator#getSubImageColors(Image, int, ForkJoinPool)
+	 */
+	@Override
+	public ColorGrid getSubImageColors(int resolution, ForkJoinPool pool) {
+		return ImageManipulator.getSubImageColors(this, resolution, pool);
+	}
+
+	/**
+	 * Thresholds every sub-image of this image down to a square black and
+	 * white bitmap.
+	 * @param resolution      The number of sub-images along the width.
+	 * @param shapeResolution The width and height of every bitmap.
+	 * @param pool            The pool to compute on, or {@code null} to
+	 *                        compute on the calling thread.
+	 * @return The packed bitmap of every sub-image.
+	 * @see ImageManipulator#getSubImageShapes(Image, int, int, ForkJoinPool)
+	 */
+	@Override
+	public long[][][] getSubImageShapes(int resolution, int shapeResolution, ForkJoinPool pool) {
+		return ImageManipulator.getSubImageShapes(this, resolution, shapeResolution, pool);
+	}
+
+	/**
+	 * Gets the summed-area table of this image's luminance,
+	 * building it on the first call.
+	 * @param pool The pool to build the table on, or {@code null}
+	 *             to build it on the calling thread.
+	 * @return The summed-area table of this image.
+	 */
+	synchronized SummedAreaTable getSummedAreaTable(ForkJoinPool pool) {
+		if (summedAreaTable == null) {
+			summedAreaTable = new SummedAreaTable(this, pool);
+		}
+		return summedAreaTable;
+	}
+
+	/**
+	 * Gets a 64-bit hash of this image's dimensions and pixels,
+	 * computing it on the first call.
+	 * Images with equal content have equal fingerprints, so the
+	 * fingerprint can be used as a cache key for values derived from
+	 * the pixels.
+	 * @return The fingerprint of this image.
+	 */
+	@Override
+	public synchronized long getFingerprint() {
+		if (!hasFingerprint) {
+			long hash = (FNV_OFFSET_BASIS ^ width) * FNV_PRIME;
+			hash = (hash ^ height) * FNV_PRIME;
+			int[] row = new int[width];
+			for (int y = 0; y < height; y++) {
+				getRow(y, row);
+				for (int rgb : row) {
+					hash = (hash ^ rgb) * FNV_PRIME;
+				}
+			}
+			fingerprint = hash;
+			hasFingerprint = true;
+		}
+		return fingerprint;
 	}
 
 	/**
@@ -85,14 +304,11 @@ public class Image {
 	 * @param fileName The name of the output file (without extension).
 	 */
 	public void saveImage(String fileName) {
-		// Initialize BufferedImage, assuming Color[][] is already properly populated.
-		BufferedImage bufferedImage = new BufferedImage(pixelArray[0].length, pixelArray.length,
+		BufferedImage bufferedImage = new BufferedImage(getWidth(), getHeight(),
 				BufferedImage.TYPE_INT_RGB);
-		// Set each pixel of the BufferedImage to the color from the Color[][].
-		for (int x = 0; x < pixelArray.length; x++) {
-			for (int y = 0; y < pixelArray[x].length; y++) {
-				bufferedImage.setRGB(y, x, pixelArray[x][y].getRGB());
-			}
+		int[] row = new int[getWidth()];
+		for (int y = 0; y < getHeight(); y++) {
+			bufferedImage.setRGB(0, y, getWidth(), 1, getRow(y, row), 0, getWidth());
 		}
 		File outputfile = new File(fileName + ".jpeg");
 		try {
@@ -1,6 +1,6 @@
 package image;
 
-import java.awt.*;
+import java.util.concurrent.ForkJoinPool;
 
 
 /**
@@ -9,6 +9,8 @@ import java.awt.*;
  * to the nearest power-of-two dimensions
  * and calculating brightness values for sub-images
  * based on specified resolution.
+ * Images are divided into sub-images by a {@link TileGrid}, so any
+ * resolution up to the width of the image can be used, padded or not.
  * @author Rotem Israeli, Nadav Benjamin
  * @see Image
  */
@@ -16,10 +18,38 @@ public class ImageManipulator {
 	
 	private static final int BASE_TWO = 2;
 	private static final int DIVISION_FACTOR = 2;
+	private static final int BLOCK_SIZE = 2;
+	private static final int BLOCK_CELLS = BLOCK_SIZE * BLOCK_SIZE;
 	private static final double RED_COMPONENT = 0.2126;
-	private static final double GREEN_COMPONENT = 0.7152;
 	private static final double BLUE_COMPONENT = 0.0722;
 	private static final int MAX_BRIGHTNESS = 255;
+	private static final int FIXED_POINT_SHIFT = 16;
+	private static final int FIXED_POINT_ONE = 1 << FIXED_POINT_SHIFT;
+	private static final int RED_WEIGHT = (int) Math.round(RED_COMPONENT * FIXED_POINT_ONE);
+	private static final int BLUE_WEIGHT = (int) Math.round(BLUE_COMPONENT * FIXED_POINT_ONE);
+	// Derived from the other two weights so that white sums to exactly FIXED_POINT_ONE.
+	private static final int GREEN_WEIGHT = FIXED_POINT_ONE - RED_WEIGHT - BLUE_WEIGHT;
+	private static final int RED_SHIFT = 16;
+	private static final int GREEN_SHIFT = 8;
+	private static final int CHANNEL_MASK = 0xFF;
+	private static final int CHANNEL_BITS = 8;
+	private static final int CHANNEL_LEVELS = 1 << CHANNEL_BITS;
+	// The weighted contribution of every level of every channel, so a
+	// pixel's luminance costs three table lookups and two additions.
+	private static final int[] RED_LUMINANCE = weightTable(RED_WEIGHT);
+	private static final int[] GREEN_LUMINANCE = weightTable(GREEN_WEIGHT);
+	private static final int[] BLUE_LUMINANCE = weightTable(BLUE_WEIGHT);
+	/**
+	 * The number of color channels summed per sub-image.
+	 */
+	static final int CHANNELS = 3;
+	private static final int RED = 0;
+	private static final int GREEN = 1;
+	private static final int BLUE = 2;
+	/**
+	 * The fixed-point luminance of a white pixel.
+	 */
+	static final long WHITE_LUMINANCE = (long) MAX_BRIGHTNESS * FIXED_POINT_ONE;
 	
 	private ImageManipulator() {
 	}
@@ -29,32 +59,41 @@ public class ImageManipulator {
 	 * Adds white padding to the edges of the image
 	 * to ensure both its width and height
 	 * are powers of two.
+	 * The padded image is a view that maps coordinates to the given
+	 * image on the fly, so no pixels are copied.
 	 * @param image The image to be padded.
-	 * @return A new image with dimensions padded
-	 * to the nearest power of two.
+	 * @return An image with dimensions padded
+	 * to the nearest power of two, or the given image if its
+	 * dimensions are already powers of two.
 	 */
 	public static Image padImage(Image image) {
-		int newWidth = (int) Math.pow(BASE_TWO,
-				Math.ceil(Math.log(image.getWidth()) / Math.log(BASE_TWO)));
-		int newHeight = (int) Math.pow(BASE_TWO,
-				Math.ceil(Math.log(image.getHeight()) / Math.log(BASE_TWO)));
-		int widthDifference = newWidth - image.getWidth();
-		int heightDifference = newHeight - image.getHeight();
-		Color[][] newPixels = new Color[newHeight][newWidth];
-		for (int y = 0; y < newHeight; y++) {
-			for (int x = 0; x < newWidth; x++) {
-				if (x < widthDifference / DIVISION_FACTOR || y < heightDifference / DIVISION_FACTOR
-							|| x >= image.getWidth() + widthDifference / DIVISION_FACTOR
-							|| y >= image.getHeight() + heightDifference / DIVISION_FACTOR) {
-					newPixels[y][x] = Color.WHITE;
-				} else {
-					newPixels[y][x] =
-							image.getPixel(y - heightDifference / DIVISION_FACTOR,
-									x - widthDifference / DIVISION_FACTOR);
-				}
-			}
+		int newWidth = paddedSize(image.getWidth());
+		int newHeight = paddedSize(image.getHeight());
+		if (newWidth == image.getWidth() && newHeight == image.getHeight()) {
+			return image;
 		}
-		return new Image(newPixels, newWidth, newHeight);
+		return new PaddedImage(image, newWidth, newHeight, paddingBefore(image.getWidth(), newWidth),
+				paddingBefore(image.getHeight(), newHeight));
+	}
+
+	/**
+	 * Rounds a dimension up to the nearest power of two.
+	 * @param size The width or height of an image.
+	 * @return The padded width or height.
+	 */
+	static int paddedSize(int size) {
+		return (int) Math.pow(BASE_TWO, Math.ceil(Math.log(size) / Math.log(BASE_TWO)));
+	}
+
+	/**
+	 * Gets the number of padding pixels added before the image along
+	 * one dimension, so that the image is centered in the padded one.
+	 * @param size       The width or height of the image.
+	 * @param paddedSize The width or height of the padded image.
+	 * @return The number of padding pixels on the left or top.
+	 */
+	static int paddingBefore(int size, int paddedSize) {
+		return (paddedSize - size) / DIVISION_FACTOR;
 	}
 
 	/**
@@ -63,30 +102,313 @@ public class ImageManipulator {
 	 * Divides the image into smaller sub-images based
 	 * on the resolution and computes
 	 * the average brightness for each sub-image.
+	 * The averages are read from the image's summed-area table, which
+	 * is built on the first call, so later calls at any resolution
+	 * cost one lookup per sub-image instead of a pass over the pixels.
 	 * @param image The image whose brightness values are to be calculated.
 	 * @param resolution The number of divisions along one dimension.
 	 * @return A 2D array of brightness values for the sub-images.
 	 */
 	public static double[][] getSubImageBrightnesses(Image image, int resolution) {
-		int subImageWidth = image.getWidth() / resolution;
-		double[][] subImageBrightnesses = new double[image.getHeight() / subImageWidth][resolution];
-		double brightness;
-		Color color;
-		for (int y = 0; y < image.getHeight() / subImageWidth; y++) {
-			for (int x = 0; x < resolution; x++) {
-				brightness = 0;
-				for (int pixelY = 0; pixelY < subImageWidth; pixelY++) {
-					for (int pixelX = 0; pixelX < subImageWidth; pixelX++) {
-						color = image.getPixel(y * subImageWidth + pixelY, x * subImageWidth + pixelX);
-						brightness += color.getRed() * RED_COMPONENT
-											  + color.getGreen() * GREEN_COMPONENT
-											  + color.getBlue() * BLUE_COMPONENT;
-					}
+		return getSubImageBrightnesses(image, resolution, null);
+	}
+
+	/**
+	 * Calculates brightness values for sub-images within
+	 * the given resolution, splitting the rows of sub-images
+	 * into bands that are processed in parallel on the given pool.
+	 * The image's summed-area table is built on the same pool if
+	 * it does not exist yet.
+	 * @param image The image whose brightness values are to be calculated.
+	 * @param resolution The number of divisions along one dimension.
+	 * @param pool The pool to compute on, or {@code null} to compute
+	 *             on the calling thread.
+	 * @return A 2D array of brightness values for the sub-images.
+	 */
+	public static double[][] getSubImageBrightnesses(Image image, int resolution, ForkJoinPool pool) {
+		SummedAreaTable table = image.getSummedAreaTable(pool);
+		TileGrid grid = new TileGrid(image.getWidth(), image.getHeight(), resolution);
+		double[][] subImageBrightnesses = new double[grid.getRows()][resolution];
+		BandTask.forEachBand(pool, subImageBrightnesses.length, (fromRow, toRow) -> {
+			for (int y = fromRow; y < toRow; y++) {
+				int top = grid.rowStart(y);
+				int bottom = grid.rowStart(y + 1);
+				for (int x = 0; x < resolution; x++) {
+					int left = grid.columnStart(x);
+					int right = grid.columnStart(x + 1);
+					subImageBrightnesses[y][x] = toBrightness(table.sum(top, left, bottom, right),
+							(long) (bottom - top) * (right - left));
 				}
-				subImageBrightnesses[y][x] = brightness /
-													 (Math.pow(subImageWidth, BASE_TWO) * MAX_BRIGHTNESS);
 			}
-		}
+		});
 		return subImageBrightnesses;
 	}
+
+	/**
+	 * Calculates brightness values for sub-images within the given
+	 * resolution by summing their pixels directly, in a single pass, in
+	 * bands of sub-image rows processed in parallel on the given pool.
+	 * Unlike {@link #getSubImageBrightnesses(Image, int, ForkJoinPool)},
+	 * no summed-area table is built, which suits images measured only once
+	 * and at a single resolution, such as the frames of an animation.
+	 * @param image The image whose brightness values are to be calculated.
+	 * @param resolution The number of divisions along one dimension.
+	 * @param pool The pool to compute on, or {@code null} to compute
+	 *             on the calling thread.
+	 * @return A 2D array of brightness values for the sub-images.
+	 */
+	public static double[][] sumSubImageBrightnesses(Image image, int resolution, ForkJoinPool pool) {
+		TileGrid grid = new TileGrid(image.getWidth(), image.getHeight(), resolution);
+		double[][] brightnesses = new double[grid.getRows()][resolution];
+		BandTask.forEachBand(pool, grid.getRows(), (fromRow, toRow) -> {
+			int[] row = new int[image.getWidth()];
+			for (int y = fromRow; y < toRow; y++) {
+				measureRow(image, grid, y, row, brightnesses[y], null);
+			}
+		});
+		return brightnesses;
+	}
+
+	/**
+	 * Calculates the average brightness and the average color of every
+	 * sub-image within the given resolution, in a single pass over the
+	 * pixels.
+	 * The summed-area table only holds luminance, so the pixels of every
+	 * sub-image are summed directly, luminance and color channels together,
+	 * in bands of sub-image rows processed in parallel on the given pool.
+	 * @param image The image whose sub-images are measured.
+	 * @param resolution The number of divisions along one dimension.
+	 * @param pool The pool to compute on, or {@code null} to compute
+	 *             on the calling thread.
+	 * @return The brightness and color of every sub-image.
+	 */
+	public static ColorGrid getSubImageColors(Image image, int resolution, ForkJoinPool pool) {
+		TileGrid grid = new TileGrid(image.getWidth(), image.getHeight(), resolution);
+		double[][] brightnesses = new double[grid.getRows()][resolution];
+		int[][] colors = new int[grid.getRows()][resolution];
+		BandTask.forEachBand(pool, grid.getRows(), (fromRow, toRow) -> {
+			int[] row = new int[image.getWidth()];
+			for (int y = fromRow; y < toRow; y++) {
+				measureRow(image, grid, y, row, brightnesses[y], colors[y]);
+			}
+		});
+		return new ColorGrid(brightnesses, colors);
+	}
+
+	/**
+	 * Thresholds every sub-image within the given resolution down to a
+	 * square black and white bitmap, for matching against glyph shapes.
+	 * Rows of sub-images are split into bands that are processed in
+	 * parallel on the given pool.
+	 * @param image The image whose sub-images are thresholded.
+	 * @param resolution The number of divisions along one dimension.
+	 * @param shapeResolution The width and height of every bitmap.
+	 * @param pool The pool to compute on, or {@code null} to compute
+	 *             on the calling thread.
+	 * @return The packed bitmap of every sub-image.
+	 * @see ShapeAccumulator
+	 */
+	public static long[][][] getSubImageShapes(Image image, int resolution, int shapeResolution,
+											   ForkJoinPool pool) {
+		TileGrid grid = new TileGrid(image.getWidth(), image.getHeight(), resolution);
+		long[][][] shapes = new long[grid.getRows()][resolution][];
+		BandTask.forEachBand(pool, shapes.length, (fromRow, toRow) -> {
+			ShapeAccumulator accumulator = new ShapeAccumulator(grid, shapeResolution);
+			int[] row = new int[image.getWidth()];
+			for (int y = fromRow; y < toRow; y++) {
+				int top = grid.rowStart(y);
+				int subImageHeight = grid.rowStart(y + 1) - top;
+				accumulator.startRow(subImageHeight);
+				for (int rowInSubImage = 0; rowInSubImage < subImageHeight; rowInSubImage++) {
+					image.copyRow(top + rowInSubImage, row, 0);
+					accumulator.addRow(rowInSubImage, row);
+				}
+				accumulator.finishRow(shapes[y]);
+			}
+		});
+		return shapes;
+	}
+
+	/**
+	 * Measures one row of sub-images by summing their pixels.
+	 * @param image        The image the sub-images belong to.
+	 * @param grid         The grid dividing the image into sub-images.
+	 * @param gridRow      The row of sub-images to measure.
+	 * @param row          A buffer of at least the image's width.
+	 * @param brightnesses Receives the brightness of every sub-image.
+	 * @param colors       Receives the average color of every sub-image,
+	 *                     or {@code null} to skip colors.
+	 */
+	static void measureRow(Image image, TileGrid grid, int gridRow, int[] row, double[] brightnesses,
+						   int[] colors) {
+		long[] luminanceSums = new long[brightnesses.length];
+		long[] channelSums = colors == null ? null : new long[brightnesses.length * CHANNELS];
+		int top = grid.rowStart(gridRow);
+		int bottom = grid.rowStart(gridRow + 1);
+		for (int y = top; y < bottom; y++) {
+			image.copyRow(y, row, 0);
+			for (int x = 0; x < luminanceSums.length; x++) {
+				int from = grid.columnStart(x);
+				int to = grid.columnStart(x + 1);
+				if (channelSums == null) {
+					luminanceSums[x] += sumLuminance(row, from, to);
+				} else {
+					luminanceSums[x] += addChannels(row, from, to, channelSums, x * CHANNELS);
+				}
+			}
+		}
+		for (int x = 0; x < luminanceSums.length; x++) {
+			long area = (long) (bottom - top) * (grid.columnStart(x + 1) - grid.columnStart(x));
+			brightnesses[x] = toBrightness(luminanceSums[x], area);
+			if (colors != null) {
+				colors[x] = averageColor(channelSums, x * CHANNELS, 0, area);
+			}
+		}
+	}
+
+	/**
+	 * Derives the brightnesses of an image at half a resolution from its
+	 * brightnesses at that resolution, without reading the image again.
+	 * Every sub-image at half the resolution covers exactly a 2x2 block of
+	 * sub-images, whose brightnesses are averaged weighted by their areas,
+	 * so the result equals the brightnesses measured from the image.
+	 * @param fineGrid The brightnesses at the finer resolution.
+	 * @param width    The width of the image.
+	 * @param height   The height of the image.
+	 * @return The brightnesses at half the resolution, or {@code null} if
+	 * the sub-images of the finer grid do not form 2x2 blocks.
+	 */
+	public static double[][] halveResolution(double[][] fineGrid, int width, int height) {
+		int fineColumns = fineGrid[0].length;
+		if (fineGrid.length % BLOCK_SIZE != 0 || fineColumns % BLOCK_SIZE != 0
+					|| TileGrid.rowsFor(width, height, fineColumns / BLOCK_SIZE)
+							   != fineGrid.length / BLOCK_SIZE) {
+			return null;
+		}
+		TileGrid fine = new TileGrid(width, height, fineColumns);
+		boolean uniform = fine.isUniform();
+		double[][] grid = new double[fineGrid.length / BLOCK_SIZE][fineColumns / BLOCK_SIZE];
+		for (int y = 0; y < grid.length; y++) {
+			int fineY = y * BLOCK_SIZE;
+			double[] upper = fineGrid[fineY];
+			double[] lower = fineGrid[fineY + 1];
+			for (int x = 0; x < grid[y].length; x++) {
+				int fineX = x * BLOCK_SIZE;
+				if (uniform) {
+					grid[y][x] = (upper[fineX] + upper[fineX + 1] + lower[fineX] + lower[fineX + 1])
+										 / BLOCK_CELLS;
+					continue;
+				}
+				long upperHeight = fine.rowStart(fineY + 1) - fine.rowStart(fineY);
+				long lowerHeight = fine.rowStart(fineY + BLOCK_SIZE) - fine.rowStart(fineY + 1);
+				long leftWidth = fine.columnStart(fineX + 1) - fine.columnStart(fineX);
+				long rightWidth = fine.columnStart(fineX + BLOCK_SIZE) - fine.columnStart(fineX + 1);
+				double weighted = upper[fineX] * upperHeight * leftWidth
+										  + upper[fineX + 1] * upperHeight * rightWidth
+										  + lower[fineX] * lowerHeight * leftWidth
+										  + lower[fineX + 1] * lowerHeight * rightWidth;
+				grid[y][x] = weighted / ((upperHeight + lowerHeight) * (leftWidth + rightWidth));
+			}
+		}
+		return grid;
+	}
+
+	/**
+	 * Adds the color channels of some pixels to running sums, and sums
+	 * their luminance in the same pass.
+	 * @param row         The packed RGB pixels.
+	 * @param from        The index of the first pixel to add.
+	 * @param to          The index just after the last pixel to add.
+	 * @param channelSums The red, green and blue sums, one after the other.
+	 * @param offset      The index of the red sum.
+	 * @return The summed fixed-point luminance of the pixels.
+	 */
+	static long addChannels(int[] row, int from, int to, long[] channelSums, int offset) {
+		long luminance = 0;
+		long red = 0;
+		long green = 0;
+		long blue = 0;
+		for (int pixel = from; pixel < to; pixel++) {
+			int rgb = row[pixel];
+			int r = (rgb >> RED_SHIFT) & CHANNEL_MASK;
+			int g = (rgb >> GREEN_SHIFT) & CHANNEL_MASK;
+			int b = rgb & CHANNEL_MASK;
+			luminance += fixedPointLuminance(rgb);
+			red += r;
+			green += g;
+			blue += b;
+		}
+		channelSums[offset + RED] += red;
+		channelSums[offset + GREEN] += green;
+		channelSums[offset + BLUE] += blue;
+		return luminance;
+	}
+
+	/**
+	 * Averages summed color channels into a packed color.
+	 * @param channelSums  The red, green and blue sums, one after the other.
+	 * @param offset       The index of the red sum.
+	 * @param whitePixels  The number of white pixels not included in the
+	 *                     sums, such as padding.
+	 * @param pixelCount   The total number of pixels, including white ones.
+	 * @return The rounded average color, as {@code 0xRRGGBB}.
+	 */
+	static int averageColor(long[] channelSums, int offset, long whitePixels, long pixelCount) {
+		int color = 0;
+		for (int channel = RED; channel < CHANNELS; channel++) {
+			long sum = channelSums[offset + channel] + whitePixels * MAX_BRIGHTNESS;
+			color = (color << CHANNEL_BITS) | (int) ((sum + pixelCount / DIVISION_FACTOR) / pixelCount);
+		}
+		return color;
+	}
+
+	/**
+	 * Normalizes the fixed-point luminance summed over some pixels
+	 * to their average brightness.
+	 * @param luminanceSum The summed fixed-point luminance.
+	 * @param pixelCount   The number of pixels summed.
+	 * @return The average brightness, between 0 and 1.
+	 */
+	static double toBrightness(long luminanceSum, long pixelCount) {
+		return luminanceSum / ((double) pixelCount * WHITE_LUMINANCE);
+	}
+
+	/**
+	 * Computes the weighted luminance of a pixel in fixed point.
+	 * @param rgb The pixel as {@code 0xRRGGBB}.
+	 * @return The luminance scaled by {@code 2^16}, between 0 and
+	 * {@code 255 * 2^16}.
+	 */
+	static int fixedPointLuminance(int rgb) {
+		return RED_LUMINANCE[(rgb >> RED_SHIFT) & CHANNEL_MASK]
+					   + GREEN_LUMINANCE[(rgb >> GREEN_SHIFT) & CHANNEL_MASK]
+					   + BLUE_LUMINANCE[rgb & CHANNEL_MASK];
+	}
+
+	/**
+	 * Sums the fixed-point luminance of a run of pixels, each weighted by
+	 * {@link #fixedPointLuminance(int)} as in the summed-area table, so
+	 * both paths agree on every sub-image. The sum is kept in a {@code long}, which holds the luminance of
+	 * more than 500 billion white pixels, and is only normalized once by
+	 * the caller.
+	 * @param row  The packed RGB pixels.
+	 * @param from The index of the first pixel to sum.
+	 * @param to   The index just after the last pixel to sum.
+	 * @return The summed fixed-point luminance.
+	 */
+	static long sumLuminance(int[] row, int from, int to) {
+		long sum = 0;
+		for (int pixel = from; pixel < to; pixel++) {
+			sum += fixedPointLuminance(row[pixel]);
+		}
+		return sum;
+	}
+
+	private static int[] weightTable(int weight) {
+		int[] table = new int[CHANNEL_LEVELS];
+		for (int level = 0; level < CHANNEL_LEVELS; level++) {
+			table[level] = level * weight;
+		}
+		return table;
+	}
 }
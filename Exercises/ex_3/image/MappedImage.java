@@ -0,0 +1,58 @@
+package image;
+
+import java.nio.IntBuffer;
+
+/**
+ * An image whose packed RGB pixels live in a memory-mapped file instead
+ * of the heap.
+ * Pixels are read straight from the mapping, so opening the image costs
+ * no decoding and no copying, and the operating system pages the file in
+ * only as rows are used.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see RasterCache
+ */
+class MappedImage extends Image {
+	private final IntBuffer pixels;
+	private final long fingerprint;
+
+	/**
+	 * Constructs an image on top of a mapped raster.
+	 * @param pixels      A row-major buffer of packed RGB values of
+	 *                    {@code width * height} entries.
+	 * @param width       The width of the image in pixels.
+	 * @param height      The height of the image in pixels.
+	 * @param fingerprint The fingerprint of the image the raster was
+	 *                    stored from.
+	 */
+	MappedImage(IntBuffer pixels, int width, int height, long fingerprint) {
+		super(width, height);
+		this.pixels = pixels;
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Gets the packed RGB value of the pixel at the specified coordinates.
+	 * @param x The row of the pixel.
+	 * @param y The column of the pixel.
+	 * @return The pixel as {@code 0xRRGGBB}.
+	 */
+	@Override
+	public int getRGB(int x, int y) {
+		return this.pixels.get(x * getWidth() + y);
+	}
+
+	@Override
+	void copyRow(int row, int[] dest, int offset) {
+		this.pixels.get(row * getWidth(), dest, offset, getWidth());
+	}
+
+	/**
+	 * Gets the fingerprint stored with the raster, which equals that of the
+	 * decoded image, so that no pass over the pixels is needed.
+	 * @return The fingerprint of this image.
+	 */
+	@Override
+	public long getFingerprint() {
+		return this.fingerprint;
+	}
+}
@@ -0,0 +1,177 @@
+package image;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An image whose pixels are the raw samples of a binary netpbm file,
+ * read straight from a buffer over the file instead of a decoded raster.
+ * Rows are converted to packed RGB only when they are copied, so opening
+ * the image costs no decoding, and the pixels never exist as objects or
+ * as a second copy on the heap.
+ * A single mapping cannot exceed 2 GB, so the raster of a larger file is
+ * mapped in windows of whole rows, each mapped the first time one of its
+ * rows is read.
+ * The image may skip pixels: every {@code subsampling}-th pixel of every
+ * {@code subsampling}-th row of the file is used.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see NetpbmReader
+ */
+class NetpbmImage extends Image {
+	private static final int BYTE_MASK = 0xFF;
+	private static final int RED_SHIFT = 16;
+	private static final int GREEN_SHIFT = 8;
+	private static final int GRAY_CHANNELS = 1;
+	private final Path file;
+	private final long rasterOffset;
+	private final ByteBuffer[] windows;
+	private final int windowOffset;
+	private final int windowRows;
+	private final int fileHeight;
+	private final int channels;
+	private final int bytesPerSample;
+	private final int[] levels;
+	private final int fileRowBytes;
+	private final int subsampling;
+	private final int pixelStride;
+
+	/**
+	 * Constructs an image on top of the raster of a netpbm file that is
+	 * mapped whole.
+	 * @param data           A buffer holding the file.
+	 * @param rasterOffset   The index in the buffer of the first sample.
+	 * @param fileWidth      The width of the image in the file.
+	 * @param fileHeight     The height of the image in the file.
+	 * @param channels       1 for graymaps, 3 for pixmaps.
+	 * @param bytesPerSample 1 if the largest sample is below 256, 2 otherwise.
+	 * @param levels         The 8-bit level of every sample value.
+	 * @param subsampling    The distance between used pixels, 1 to use
+	 *                       every pixel.
+	 */
+	NetpbmImage(ByteBuffer data, int rasterOffset, int fileWidth, int fileHeight, int channels,
+				int bytesPerSample, int[] levels, int subsampling) {
+		this(null, rasterOffset, new ByteBuffer[] {data}, rasterOffset, fileHeight, fileWidth, fileHeight,
+				channels, bytesPerSample, levels, subsampling);
+	}
+
+	/**
+	 * Constructs an image on top of the raster of a netpbm file that is
+	 * mapped in windows of at most {@code windowBytes} bytes.
+	 * @param file           The netpbm file.
+	 * @param rasterOffset   The position in the file of the first sample.
+	 * @param windowBytes    The largest size of a window, which holds at
+	 *                       least one row.
+	 * @param fileWidth      The width of the image in the file.
+	 * @param fileHeight     The height of the image in the file.
+	 * @param channels       1 for graymaps, 3 for pixmaps.
+	 * @param bytesPerSample 1 if the largest sample is below 256, 2 otherwise.
+	 * @param levels         The 8-bit level of every sample value.
+	 * @param subsampling    The distance between used pixels, 1 to use
+	 *                       every pixel.
+	 */
+	NetpbmImage(Path file, long rasterOffset, int windowBytes, int fileWidth, int fileHeight, int channels,
+				int bytesPerSample, int[] levels, int subsampling) {
+		this(file, rasterOffset, null, 0, windowBytes / (fileWidth * channels * bytesPerSample), fileWidth,
+				fileHeight, channels, bytesPerSample, levels, subsampling);
+	}
+
+	private NetpbmImage(Path file, long rasterOffset, ByteBuffer[] windows, int windowOffset, int windowRows,
+						int fileWidth, int fileHeight, int channels, int bytesPerSample, int[] levels,
+						int subsampling) {
+		super((fileWidth + subsampling - 1) / subsampling, (fileHeight + subsampling - 1) / subsampling);
+		this.file = file;
+		this.rasterOffset = rasterOffset;
+		this.windows = windows != null ? windows : new ByteBuffer[(fileHeight + windowRows - 1) / windowRows];
+		this.windowOffset = windowOffset;
+		this.windowRows = windowRows;
+		this.fileHeight = fileHeight;
+		this.channels = channels;
+		this.bytesPerSample = bytesPerSample;
+		this.levels = levels;
+		this.fileRowBytes = fileWidth * channels * bytesPerSample;
+		this.subsampling = subsampling;
+		this.pixelStride = channels * bytesPerSample * subsampling;
+	}
+
+	/**
+	 * Gets the packed RGB value of the pixel at the specified coordinates.
+	 * @param x The row of the pixel.
+	 * @param y The column of the pixel.
+	 * @return The pixel as {@code 0xRRGGBB}.
+	 * @throws UncheckedIOException If a window of the file cannot be mapped.
+	 */
+	@Override
+	public int getRGB(int x, int y) {
+		int fileRow = x * this.subsampling;
+		return pixel(window(fileRow / this.windowRows), rowPosition(fileRow) + y * this.pixelStride);
+	}
+
+	@Override
+	void copyRow(int row, int[] dest, int offset) {
+		int fileRow = row * this.subsampling;
+		ByteBuffer data = window(fileRow / this.windowRows);
+		int position = rowPosition(fileRow);
+		int end = offset + getWidth();
+		if (this.bytesPerSample == 1 && this.channels == GRAY_CHANNELS) {
+			for (int x = offset; x < end; x++, position += this.pixelStride) {
+				int gray = this.levels[data.get(position) & BYTE_MASK];
+				dest[x] = (gray << RED_SHIFT) | (gray << GREEN_SHIFT) | gray;
+			}
+		} else if (this.bytesPerSample == 1) {
+			for (int x = offset; x < end; x++, position += this.pixelStride) {
+				dest[x] = (this.levels[data.get(position) & BYTE_MASK] << RED_SHIFT)
+								  | (this.levels[data.get(position + 1) & BYTE_MASK] << GREEN_SHIFT)
+								  | this.levels[data.get(position + 2) & BYTE_MASK];
+			}
+		} else {
+			for (int x = offset; x < end; x++, position += this.pixelStride) {
+				dest[x] = pixel(data, position);
+			}
+		}
+	}
+
+	private int rowPosition(int fileRow) {
+		return this.windowOffset + (fileRow % this.windowRows) * this.fileRowBytes;
+	}
+
+	/**
+	 * Gets a window of the raster, mapping it on first use. The mapping
+	 * stays valid after its channel is closed.
+	 */
+	private synchronized ByteBuffer window(int index) {
+		if (this.windows[index] == null) {
+			int firstRow = index * this.windowRows;
+			long bytes = (long) Math.min(this.windowRows, this.fileHeight - firstRow) * this.fileRowBytes;
+			try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+				this.windows[index] = channel.map(FileChannel.MapMode.READ_ONLY,
+						this.rasterOffset + (long) firstRow * this.fileRowBytes, bytes);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return this.windows[index];
+	}
+
+	private int pixel(ByteBuffer data, int position) {
+		if (this.channels == GRAY_CHANNELS) {
+			int gray = sample(data, position);
+			return (gray << RED_SHIFT) | (gray << GREEN_SHIFT) | gray;
+		}
+		return (sample(data, position) << RED_SHIFT)
+					   | (sample(data, position + this.bytesPerSample) << GREEN_SHIFT)
+					   | sample(data, position + 2 * this.bytesPerSample);
+	}
+
+	private int sample(ByteBuffer data, int position) {
+		int value = data.get(position) & BYTE_MASK;
+		if (this.bytesPerSample > 1) {
+			// Samples wider than a byte are stored most significant byte first.
+			value = (value << Byte.SIZE) | (data.get(position + 1) & BYTE_MASK);
+		}
+		return this.levels[value];
+	}
+}
@@ -0,0 +1,229 @@
+package image;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads binary netpbm files: graymaps ({@code P5}) and pixmaps
+ * ({@code P6}), with 8-bit or 16-bit samples.
+ * {@link javax.imageio.ImageIO} cannot read these formats. Instead of
+ * decoding them, the file is mapped with {@link FileChannel#map} and the
+ * returned image reads its samples straight from the mapping, scaling
+ * them to 8-bit levels with a lookup table as rows are copied. Files of
+ * up to 2 GB are mapped at once; the raster of a larger file is mapped
+ * in windows of whole rows as they are read.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see NetpbmImage
+ */
+public class NetpbmReader {
+	private static final char MAGIC_PREFIX = 'P';
+	private static final char GRAYMAP_TYPE = '5';
+	private static final char PIXMAP_TYPE = '6';
+	private static final int MAGIC_BYTES = 2;
+	private static final int GRAY_CHANNELS = 1;
+	private static final int RGB_CHANNELS = 3;
+	private static final int MAX_BYTE_SAMPLE = 255;
+	private static final int MAX_SAMPLE = 65535;
+	private static final int DECIMAL_RADIX = 10;
+	private static final char COMMENT = '#';
+	private static final char LINE_END = '\n';
+	private static final int HEADER_FIELDS = 3;
+	private static final int WIDTH_FIELD = 0;
+	private static final int HEIGHT_FIELD = 1;
+	private static final int MAX_SAMPLE_FIELD = 2;
+	private static final int FULL_DETAIL = 1;
+	private static final String MALFORMED_MESSAGE = "Malformed netpbm file: ";
+	private static final String TOO_LARGE_MESSAGE = "Netpbm rows too long to map: ";
+	private static final int MAX_MAPPING_BYTES = Integer.MAX_VALUE;
+
+	private NetpbmReader() {
+	}
+
+	/**
+	 * The parsed header of a netpbm file.
+	 */
+	private static final class Header {
+		private final int channels;
+		private final int width;
+		private final int height;
+		private final int maxSample;
+		private final int rasterOffset;
+
+		private Header(int channels, int width, int height, int maxSample, int rasterOffset) {
+			this.channels = channels;
+			this.width = width;
+			this.height = height;
+			this.maxSample = maxSample;
+			this.rasterOffset = rasterOffset;
+		}
+
+		private int bytesPerSample() {
+			return this.maxSample > MAX_BYTE_SAMPLE ? 2 : 1;
+		}
+
+		private long rasterBytes() {
+			return (long) this.width * this.height * this.channels * bytesPerSample();
+		}
+	}
+
+	/**
+	 * Checks whether a file is a binary netpbm graymap or pixmap, by its
+	 * first two bytes.
+	 * @param filename The path to the file.
+	 * @return {@code true} if the file can be read by this reader.
+	 */
+	public static boolean isNetpbm(String filename) {
+		try (InputStream in = Files.newInputStream(Paths.get(filename))) {
+			byte[] magic = in.readNBytes(MAGIC_BYTES);
+			return magic.length == MAGIC_BYTES && magic[0] == MAGIC_PREFIX
+						   && (magic[1] == GRAYMAP_TYPE || magic[1] == PIXMAP_TYPE);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the dimensions of a netpbm file from its header.
+	 * @param filename The path to the file.
+	 * @return The width and height of the image.
+	 * @throws IOException If the file cannot be read or is malformed.
+	 */
+	public static Dimension readSize(String filename) throws IOException {
+		Header header = parseHeader(map(filename), filename);
+		return new Dimension(header.width, header.height);
+	}
+
+	/**
+	 * Maps a netpbm file as an image, without decoding it.
+	 * @param filename The path to the file.
+	 * @return The image, reading its pixels from the mapped file.
+	 * @throws IOException If the file cannot be read or is malformed.
+	 */
+	public static Image read(String filename) throws IOException {
+		return read(filename, FULL_DETAIL);
+	}
+
+	/**
+	 * Maps a netpbm file as an image that uses only every
+	 * {@code subsampling}-th pixel of every {@code subsampling}-th row.
+	 * @param filename    The path to the file.
+	 * @param subsampling The distance between used pixels, 1 to use every
+	 *                    pixel.
+	 * @return The image, reading its pixels from the mapped file.
+	 * @throws IOException If the file cannot be read or is malformed.
+	 */
+	public static Image read(String filename, int subsampling) throws IOException {
+		ByteBuffer data = map(filename);
+		Header header = parseHeader(data, filename);
+		long fileSize = Files.size(Paths.get(filename));
+		if (fileSize - header.rasterOffset < header.rasterBytes()) {
+			throw new IOException(MALFORMED_MESSAGE + filename);
+		}
+		int[] levels = levels(header.maxSample, header.bytesPerSample());
+		if (fileSize <= MAX_MAPPING_BYTES) {
+			return new NetpbmImage(data, header.rasterOffset, header.width, header.height, header.channels,
+					header.bytesPerSample(), levels, subsampling);
+		}
+		if (header.rasterBytes() / header.height > MAX_MAPPING_BYTES) {
+			throw new IOException(TOO_LARGE_MESSAGE + filename);
+		}
+		return new NetpbmImage(Paths.get(filename), header.rasterOffset, MAX_MAPPING_BYTES, header.width,
+				header.height, header.channels, header.bytesPerSample(), levels, subsampling);
+	}
+
+	/**
+	 * Maps the start of a netpbm file, which holds its header: the whole
+	 * file if it fits in a single mapping.
+	 */
+	private static ByteBuffer map(String filename) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			// The mapping stays valid after the channel is closed.
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), MAX_MAPPING_BYTES));
+		}
+	}
+
+	/**
+	 * Parses the magic number, the width, the height and the largest
+	 * sample of a netpbm file. Fields are separated by whitespace and
+	 * comments, and a single whitespace byte separates the header from
+	 * the raster.
+	 * @param data     The mapped file.
+	 * @param filename The path to the file, for error messages.
+	 * @return The header.
+	 * @throws IOException If the header is malformed.
+	 */
+	private static Header parseHeader(ByteBuffer data, String filename) throws IOException {
+		if (data.capacity() < MAGIC_BYTES || data.get(0) != MAGIC_PREFIX
+					|| (data.get(1) != GRAYMAP_TYPE && data.get(1) != PIXMAP_TYPE)) {
+			throw new IOException(MALFORMED_MESSAGE + filename);
+		}
+		int channels = data.get(1) == GRAYMAP_TYPE ? GRAY_CHANNELS : RGB_CHANNELS;
+		int[] fields = new int[HEADER_FIELDS];
+		int position = MAGIC_BYTES;
+		for (int field = 0; field < HEADER_FIELDS; field++) {
+			position = skipSeparators(data, position);
+			long value = 0;
+			int start = position;
+			while (position < data.capacity() && Character.isDigit(data.get(position))) {
+				value = value * DECIMAL_RADIX + (data.get(position) - '0');
+				if (value > Integer.MAX_VALUE) {
+					throw new IOException(MALFORMED_MESSAGE + filename);
+				}
+				position++;
+			}
+			if (position == start) {
+				throw new IOException(MALFORMED_MESSAGE + filename);
+			}
+			fields[field] = (int) value;
+		}
+		// Exactly one whitespace byte follows the largest sample.
+		if (position >= data.capacity() || !Character.isWhitespace(data.get(position))) {
+			throw new IOException(MALFORMED_MESSAGE + filename);
+		}
+		Header header = new Header(channels, fields[WIDTH_FIELD], fields[HEIGHT_FIELD],
+				fields[MAX_SAMPLE_FIELD], position + 1);
+		if (header.width <= 0 || header.height <= 0 || header.maxSample <= 0
+					|| header.maxSample > MAX_SAMPLE) {
+			throw new IOException(MALFORMED_MESSAGE + filename);
+		}
+		return header;
+	}
+
+	private static int skipSeparators(ByteBuffer data, int position) {
+		while (position < data.capacity()) {
+			byte b = data.get(position);
+			if (b == COMMENT) {
+				while (position < data.capacity() && data.get(position) != LINE_END) {
+					position++;
+				}
+			} else if (Character.isWhitespace(b)) {
+				position++;
+			} else {
+				break;
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * Builds the table of the 8-bit level of every value a sample can
+	 * hold. Values above the largest sample of a corrupt file are white
+	 * rather than out of the table's bounds.
+	 * @param maxSample      The largest sample of the file.
+	 * @param bytesPerSample The number of bytes of every sample.
+	 * @return The level of every sample value.
+	 */
+	private static int[] levels(int maxSample, int bytesPerSample) {
+		int[] levels = new int[1 << (Byte.SIZE * bytesPerSample)];
+		for (int sample = 0; sample < levels.length; sample++) {
+			levels[sample] = (Math.min(sample, maxSample) * MAX_BYTE_SAMPLE + maxSample / 2) / maxSample;
+		}
+		return levels;
+	}
+}
@@ -0,0 +1,67 @@
+package image;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A view of an {@link Image} surrounded by white padding.
+ * Pixels are mapped to the wrapped image on the fly, so padding an image
+ * costs no memory beyond this object, and the summed-area table of the
+ * view is the one of the wrapped image.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see ImageManipulator#padImage(Image)
+ */
+class PaddedImage extends Image {
+	private static final int WHITE_RGB = 0xFFFFFF;
+	private final Image image;
+	private final int left;
+	private final int top;
+
+	/**
+	 * Constructs a padded view of an image.
+	 * @param image  The image to pad.
+	 * @param width  The width of the padded image.
+	 * @param height The height of the padded image.
+	 * @param left   The number of padding columns left of the image.
+	 * @param top    The number of padding rows above the image.
+	 */
+	PaddedImage(Image image, int width, int height, int left, int top) {
+		super(width, height);
+		this.image = image;
+		this.left = left;
+		this.top = top;
+	}
+
+	/**
+	 * Gets the packed RGB value of the pixel at the specified coordinates.
+	 * @param x The row of the pixel.
+	 * @param y The column of the pixel.
+	 * @return The pixel as {@code 0xRRGGBB}, white in the padding.
+	 */
+	@Override
+	public int getRGB(int x, int y) {
+		int row = x - this.top;
+		int column = y - this.left;
+		if (row < 0 || row >= this.image.getHeight() || column < 0 || column >= this.image.getWidth()) {
+			return WHITE_RGB;
+		}
+		return this.image.getRGB(row, column);
+	}
+
+	@Override
+	void copyRow(int row, int[] dest, int offset) {
+		int imageRow = row - this.top;
+		if (imageRow < 0 || imageRow >= this.image.getHeight()) {
+			Arrays.fill(dest, offset, offset + getWidth(), WHITE_RGB);
+			return;
+		}
+		Arrays.fill(dest, offset, offset + this.left, WHITE_RGB);
+		this.image.copyRow(imageRow, dest, offset + this.left);
+		Arrays.fill(dest, offset + this.left + this.image.getWidth(), offset + getWidth(), WHITE_RGB);
+	}
+
+	@Override
+	SummedAreaTable getSummedAreaTable(ForkJoinPool pool) {
+		return this.image.getSummedAreaTable(pool).withPadding(this.left, this.top);
+	}
+}
@@ -0,0 +1,214 @@
+package image;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps decoded images on disk, so that converting the same source file
+ * again skips decoding it.
+ * The first load of a file decodes it and writes its raster of packed RGB
+ * pixels to a raw file in the cache directory, named after a hash of the
+ * source file's content. Later loads of the same content, under any name,
+ * map that file with {@link FileChannel#map} and read pixels straight from
+ * the mapping. The raster is stored unpadded, since padding is applied as
+ * a view by {@link ImageManipulator#padImage(Image)}. Its header holds the
+ * image's {@link Image#getFingerprint() fingerprint}, so a mapped image
+ * has the same fingerprint as the decoded one without a pass over its
+ * pixels.
+ * The default cache is only used when the {@value #CACHE_DIR_PROPERTY}
+ * system property names its directory.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see MappedImage
+ */
+public class RasterCache {
+	/**
+	 * The system property holding the directory of the raster cache.
+	 */
+	public static final String CACHE_DIR_PROPERTY = "ascii.rasterCacheDir";
+	private static final String HASH_ALGORITHM = "SHA-256";
+	private static final int KEY_BYTES = 16;
+	private static final String FILE_SUFFIX = ".raster";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final int MAGIC = 0x52535452;
+	private static final int FORMAT_VERSION = 2;
+	private static final int HEADER_BYTES = 4 * Integer.BYTES + Long.BYTES;
+	private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+	private static final int READ_BUFFER_SIZE = 1 << 16;
+	private static final String HEX_FORMAT = "%02x";
+	private static RasterCache defaultCache = null;
+	private final Path directory;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Constructs a cache keeping its files in the given directory.
+	 * @param directory The directory of the cached rasters, created when
+	 *                  the first raster is written.
+	 */
+	public RasterCache(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Gets the cache in the directory named by the
+	 * {@value #CACHE_DIR_PROPERTY} system property, creating it on the
+	 * first call.
+	 * @return The default raster cache, or {@code null} if the property
+	 * is not set.
+	 */
+	public static synchronized RasterCache getDefault() {
+		String directory = System.getProperty(CACHE_DIR_PROPERTY);
+		if (defaultCache == null && directory != null) {
+			defaultCache = new RasterCache(Paths.get(directory));
+		}
+		return defaultCache;
+	}
+
+	/**
+	 * Loads an image through the default cache, or decodes it directly if
+	 * there is no default cache. Netpbm files are mapped as they are, since
+	 * their raw samples need no decoding to cache.
+	 * @param filename The path to the image file.
+	 * @return The image.
+	 * @throws IOException If the file cannot be read or is not a valid image.
+	 */
+	public static Image loadImage(String filename) throws IOException {
+		if (NetpbmReader.isNetpbm(filename)) {
+			return NetpbmReader.read(filename);
+		}
+		RasterCache cache = getDefault();
+		return cache == null ? new Image(filename) : cache.load(filename);
+	}
+
+	/**
+	 * Loads an image, mapping its cached raster if the same content was
+	 * decoded before, or decoding it and caching its raster otherwise.
+	 * A cache file that cannot be written or read only costs a decode.
+	 * @param filename The path to the image file.
+	 * @return The image.
+	 * @throws IOException If the file cannot be read or is not a valid image.
+	 */
+	public Image load(String filename) throws IOException {
+		byte[] hash = contentHash(Paths.get(filename));
+		StringBuilder key = new StringBuilder();
+		for (int i = 0; i < KEY_BYTES; i++) {
+			key.append(String.format(HEX_FORMAT, hash[i]));
+		}
+		Path file = this.directory.resolve(key + FILE_SUFFIX);
+		Image mapped = map(file);
+		if (mapped != null) {
+			this.hits.incrementAndGet();
+			return mapped;
+		}
+		this.misses.incrementAndGet();
+		Image image = new Image(filename);
+		try {
+			store(image, file);
+		} catch (IOException e) {
+			// The cache only saves time, the next load decodes the file again.
+		}
+		return image;
+	}
+
+	/**
+	 * Gets the number of loads that mapped a cached raster.
+	 * @return The number of hits.
+	 */
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	/**
+	 * Gets the number of loads that had to decode their file.
+	 * @return The number of misses.
+	 */
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	private static Image map(Path file) {
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE) {
+				return null;
+			}
+			// The mapping stays valid after the channel is closed.
+			MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			mapping.order(BYTE_ORDER);
+			if (mapping.getInt() != MAGIC || mapping.getInt() != FORMAT_VERSION) {
+				return null;
+			}
+			int width = mapping.getInt();
+			int height = mapping.getInt();
+			long fingerprint = mapping.getLong();
+			if (width <= 0 || height <= 0
+						|| channel.size() != HEADER_BYTES + (long) width * height * Integer.BYTES) {
+				return null;
+			}
+			IntBuffer pixels = mapping.slice().order(BYTE_ORDER).asIntBuffer();
+			return new MappedImage(pixels, width, height, fingerprint);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private void store(Image image, Path file) throws IOException {
+		long size = HEADER_BYTES + (long) image.getWidth() * image.getHeight() * Integer.BYTES;
+		if (size > Integer.MAX_VALUE) {
+			return;
+		}
+		Files.createDirectories(this.directory);
+		// Every writer uses its own temporary file, and the finished raster
+		// is moved into place atomically, so concurrent loads never see a
+		// partially written raster.
+		Path temp = Files.createTempFile(this.directory, file.getFileName().toString(), TEMP_SUFFIX);
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ,
+					StandardOpenOption.WRITE)) {
+				MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+				out.order(BYTE_ORDER);
+				out.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(image.getWidth()).putInt(image.getHeight())
+						.putLong(image.getFingerprint());
+				IntBuffer pixels = out.asIntBuffer();
+				int[] row = new int[image.getWidth()];
+				for (int y = 0; y < image.getHeight(); y++) {
+					pixels.put(image.getRow(y, row));
+				}
+				out.force();
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static byte[] contentHash(Path file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		byte[] buffer = new byte[READ_BUFFER_SIZE];
+		try (InputStream in = Files.newInputStream(file)) {
+			for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		return digest.digest();
+	}
+}
@@ -0,0 +1,94 @@
+package image;
+
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Backs a raster as tall as a whole image with the storage of only a few
+ * of its rows.
+ * Element indices are wrapped around a ring whose size is a power of two,
+ * so a row stays readable until enough rows to fill the ring are written
+ * after it. An image reader decoding into such a raster in a single pass
+ * writes its rows in order, and every row can be read back as soon as
+ * the reader reports it, while memory use stays that of a few rows.
+ * Since the ring size divides 2 to the 32, indices past the range of an
+ * {@code int} wrap around onto the same elements as their exact values.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see StripedImageReader
+ */
+class RingDataBuffer extends DataBuffer {
+	private static final int MAX_RING_SIZE = 1 << 30;
+	private final int[][] banks;
+	private final int mask;
+
+	private RingDataBuffer(int dataType, int numBanks, int ringSize) {
+		super(dataType, Integer.MAX_VALUE, numBanks);
+		this.banks = new int[numBanks][ringSize];
+		this.mask = ringSize - 1;
+	}
+
+	/**
+	 * Creates an image of the given type and dimensions whose raster keeps
+	 * only its last rows. Only integral data types and the standard
+	 * component and packed sample models are supported.
+	 * @param type   The type of the image, as offered by its reader.
+	 * @param width  The width of the image.
+	 * @param height The height of the image.
+	 * @param rows   The number of last rows kept.
+	 * @return The image, or {@code null} if its type is not supported or
+	 * its raster would have 2 to the 31 pixels or more.
+	 */
+	static BufferedImage createImage(ImageTypeSpecifier type, int width, int height, int rows) {
+		SampleModel sampleModel;
+		try {
+			sampleModel = type.getSampleModel(width, height);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		int dataType = sampleModel.getDataType();
+		if (dataType != DataBuffer.TYPE_BYTE && dataType != DataBuffer.TYPE_USHORT
+					&& dataType != DataBuffer.TYPE_SHORT && dataType != DataBuffer.TYPE_INT) {
+			return null;
+		}
+		int numBanks = 1;
+		int rowElements;
+		if (sampleModel instanceof ComponentSampleModel) {
+			ComponentSampleModel components = (ComponentSampleModel) sampleModel;
+			for (int bank : components.getBankIndices()) {
+				numBanks = Math.max(numBanks, bank + 1);
+			}
+			rowElements = components.getScanlineStride();
+		} else if (sampleModel instanceof SinglePixelPackedSampleModel) {
+			rowElements = ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride();
+		} else if (sampleModel instanceof MultiPixelPackedSampleModel) {
+			rowElements = ((MultiPixelPackedSampleModel) sampleModel).getScanlineStride();
+		} else {
+			return null;
+		}
+		long elements = Math.max(1, (long) rowElements * rows);
+		long ringSize = Long.highestOneBit(elements - 1) << 1;
+		if (ringSize > MAX_RING_SIZE) {
+			return null;
+		}
+		DataBuffer buffer = new RingDataBuffer(dataType, numBanks, (int) Math.max(1, ringSize));
+		WritableRaster raster = Raster.createWritableRaster(sampleModel, buffer, null);
+		return new BufferedImage(type.getColorModel(), raster, false, null);
+	}
+
+	@Override
+	public int getElem(int bank, int i) {
+		return this.banks[bank][i & this.mask];
+	}
+
+	@Override
+	public void setElem(int bank, int i, int val) {
+		this.banks[bank][i & this.mask] = val;
+	}
+}
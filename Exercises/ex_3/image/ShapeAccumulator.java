@@ -0,0 +1,199 @@
+package image;
+
+import java.util.Arrays;
+
+/**
+ * Thresholds every sub-image of a row of sub-images down to a square
+ * black and white bitmap, fed one pixel row at a time.
+ * Every sub-image is divided into a grid of cells, one per bit. A cell
+ * is white when the average brightness of its pixels is at least one
+ * half. Sub-images may differ in size by a pixel, so the cells of every
+ * sub-image are laid out over its own width and height. When all
+ * sub-images are the same square and smaller than the bitmap, a pixel
+ * covers several neighbouring cells, so instead of summing cells, every
+ * white pixel sets a precomputed mask of the cells it covers.
+ * Bitmaps are packed like those of glyphs: bit {@code y * resolution + x}
+ * of the {@code long} words is set when the cell at row {@code y}, column
+ * {@code x} is white.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see ImageManipulator#getSubImageShapes(Image, int, int, java.util.concurrent.ForkJoinPool)
+ */
+class ShapeAccumulator {
+	private static final int BITS_PER_WORD = Long.SIZE;
+	private static final int WORD_SHIFT = 6;
+	private static final int THRESHOLD_FACTOR = 2;
+	private final TileGrid grid;
+	private final int subImageCount;
+	private final int shapeResolution;
+	private final int[] firstCellX;
+	private final int[] lastCellX;
+	private final int[] cellWidths;
+	private final int[] cellHeights;
+	private int[] firstCellY = new int[0];
+	private int[] lastCellY = new int[0];
+	private final long[] luminanceSums;
+	private final int[] luminances;
+	private final int words;
+	private final int maskedWidth;
+	private final long[][] pixelMasks;
+	private final long[] rowBits;
+
+	/**
+	 * Constructs an accumulator for the rows of an image divided by the
+	 * given grid.
+	 * @param grid            The grid dividing the image into sub-images.
+	 * @param shapeResolution The width and height of every bitmap.
+	 */
+	ShapeAccumulator(TileGrid grid, int shapeResolution) {
+		this.grid = grid;
+		this.subImageCount = grid.getColumns();
+		this.shapeResolution = shapeResolution;
+		this.firstCellX = new int[grid.getWidth()];
+		this.lastCellX = new int[grid.getWidth()];
+		this.cellWidths = new int[this.subImageCount * shapeResolution];
+		for (int subImage = 0; subImage < this.subImageCount; subImage++) {
+			int left = grid.columnStart(subImage);
+			layOutCells(grid.columnStart(subImage + 1) - left, this.firstCellX, this.lastCellX, left,
+					this.cellWidths, subImage * shapeResolution);
+		}
+		this.cellHeights = new int[shapeResolution];
+		int cellsPerSubImage = shapeResolution * shapeResolution;
+		this.luminanceSums = new long[this.subImageCount * cellsPerSubImage];
+		this.luminances = new int[grid.getWidth()];
+		this.words = (cellsPerSubImage + BITS_PER_WORD - 1) / BITS_PER_WORD;
+		int subImageWidth = grid.getWidth() / this.subImageCount;
+		if (grid.isUniform() && grid.rowStart(1) == subImageWidth && subImageWidth < shapeResolution) {
+			this.maskedWidth = subImageWidth;
+			this.pixelMasks = new long[subImageWidth * subImageWidth][this.words];
+			for (int cellY = 0; cellY < shapeResolution; cellY++) {
+				for (int cellX = 0; cellX < shapeResolution; cellX++) {
+					int cell = cellY * shapeResolution + cellX;
+					this.pixelMasks[cellStart(cellY, subImageWidth) * subImageWidth
+											+ cellStart(cellX, subImageWidth)][cell >>> WORD_SHIFT] |= 1L << cell;
+				}
+			}
+			this.rowBits = new long[this.subImageCount * this.words];
+		} else {
+			this.maskedWidth = 0;
+			this.pixelMasks = null;
+			this.rowBits = null;
+		}
+	}
+
+	/**
+	 * Starts a row of sub-images of the given height.
+	 * @param subImageHeight The height of the sub-images of the row.
+	 */
+	void startRow(int subImageHeight) {
+		if (this.pixelMasks != null || this.firstCellY.length == subImageHeight) {
+			return;
+		}
+		this.firstCellY = new int[subImageHeight];
+		this.lastCellY = new int[subImageHeight];
+		layOutCells(subImageHeight, this.firstCellY, this.lastCellY, 0, this.cellHeights, 0);
+	}
+
+	/**
+	 * Adds a pixel row to the sub-images of the current row.
+	 * @param rowInSubImage The index of the row within the sub-images.
+	 * @param row           The packed RGB pixels of the row.
+	 */
+	void addRow(int rowInSubImage, int[] row) {
+		int cellsPerSubImage = this.shapeResolution * this.shapeResolution;
+		if (this.pixelMasks != null) {
+			addMaskedRow(rowInSubImage, row);
+			return;
+		}
+		for (int x = 0; x < this.luminances.length; x++) {
+			this.luminances[x] = ImageManipulator.fixedPointLuminance(row[x]);
+		}
+		for (int cellY = this.firstCellY[rowInSubImage]; cellY < this.lastCellY[rowInSubImage]; cellY++) {
+			for (int subImage = 0; subImage < this.subImageCount; subImage++) {
+				int cellRow = subImage * cellsPerSubImage + cellY * this.shapeResolution;
+				for (int x = this.grid.columnStart(subImage); x < this.grid.columnStart(subImage + 1); x++) {
+					int luminance = this.luminances[x];
+					for (int cellX = this.firstCellX[x]; cellX < this.lastCellX[x]; cellX++) {
+						this.luminanceSums[cellRow + cellX] += luminance;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Thresholds the sub-images of the current row into bitmaps and
+	 * starts a new row.
+	 * @param shapes Receives the bitmap of every sub-image of the row.
+	 */
+	void finishRow(long[][] shapes) {
+		if (this.pixelMasks != null) {
+			for (int subImage = 0; subImage < this.subImageCount; subImage++) {
+				shapes[subImage] = Arrays.copyOfRange(this.rowBits, subImage * this.words,
+						(subImage + 1) * this.words);
+			}
+			Arrays.fill(this.rowBits, 0);
+			return;
+		}
+		int cellsPerSubImage = this.shapeResolution * this.shapeResolution;
+		for (int subImage = 0; subImage < this.subImageCount; subImage++) {
+			long[] bits = new long[this.words];
+			int base = subImage * cellsPerSubImage;
+			for (int cell = 0; cell < cellsPerSubImage; cell++) {
+				long cellPixels = (long) this.cellHeights[cell / this.shapeResolution]
+										  * this.cellWidths[subImage * this.shapeResolution
+																	+ cell % this.shapeResolution];
+				if (this.luminanceSums[base + cell] * THRESHOLD_FACTOR
+							>= cellPixels * ImageManipulator.WHITE_LUMINANCE) {
+					bits[cell >>> WORD_SHIFT] |= 1L << cell;
+				}
+			}
+			shapes[subImage] = bits;
+		}
+		Arrays.fill(this.luminanceSums, 0);
+	}
+
+	private void addMaskedRow(int rowInSubImage, int[] row) {
+		// Every cell covers a single pixel, whose own brightness decides it.
+		for (int subImage = 0; subImage < this.subImageCount; subImage++) {
+			int rowStart = subImage * this.maskedWidth;
+			int bitsStart = subImage * this.words;
+			for (int offset = 0; offset < this.maskedWidth; offset++) {
+				if (ImageManipulator.fixedPointLuminance(row[rowStart + offset]) * (long) THRESHOLD_FACTOR
+							>= ImageManipulator.WHITE_LUMINANCE) {
+					long[] mask = this.pixelMasks[rowInSubImage * this.maskedWidth + offset];
+					for (int word = 0; word < this.words; word++) {
+						this.rowBits[bitsStart + word] |= mask[word];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lays out the cells of a bitmap along one side of a sub-image. When
+	 * the side is shorter than the bitmap, a pixel covers several cells.
+	 * @param size       The width or height of the sub-image.
+	 * @param firstCell  Receives the first cell every pixel covers.
+	 * @param lastCell   Receives the cell after the last one every pixel covers.
+	 * @param offset     The index in the two arrays of the sub-image's first pixel.
+	 * @param cellSizes  Receives the number of pixels of every cell.
+	 * @param cellOffset The index in the sizes of the sub-image's first cell.
+	 */
+	private void layOutCells(int size, int[] firstCell, int[] lastCell, int offset, int[] cellSizes,
+							 int cellOffset) {
+		Arrays.fill(firstCell, offset, offset + size, this.shapeResolution);
+		for (int cell = 0; cell < this.shapeResolution; cell++) {
+			int start = cellStart(cell, size);
+			int end = Math.max(start + 1, cellStart(cell + 1, size));
+			cellSizes[cellOffset + cell] = end - start;
+			for (int pixel = start; pixel < end; pixel++) {
+				firstCell[offset + pixel] = Math.min(firstCell[offset + pixel], cell);
+				lastCell[offset + pixel] = cell + 1;
+			}
+		}
+	}
+
+	private int cellStart(int cell, int size) {
+		return cell * size / this.shapeResolution;
+	}
+}
@@ -0,0 +1,138 @@
+package image;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Collects decoded rows into stripes and hands every full stripe on, row
+ * by row, to a handler.
+ * With a pool, a full stripe is handled on the pool while the next one is
+ * decoded into a second buffer, so decoding and accumulating overlap.
+ * Without one, stripes are handled on the decoding thread. Either way
+ * stripes are handled one at a time and in order, so the handler needs
+ * no synchronization. Buffers are reused, and the pixels of a row outside
+ * the part a decoder writes stay white.
+ * Interrupting the decoding thread abandons the image at the next full
+ * stripe.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see StripedImageReader
+ */
+class StripeBuffer {
+	private static final int WHITE_RGB = 0xFFFFFF;
+	private static final int BUFFERS_WITH_POOL = 2;
+	private final int[][][] buffers;
+	private final ForkJoinPool pool;
+	private final RowHandler handler;
+	private int current = 0;
+	private int rowCount = 0;
+	private int firstRow = 0;
+	private ForkJoinTask<?> pending = null;
+
+	/**
+	 * Receives the rows of the image, one at a time and in order.
+	 */
+	@FunctionalInterface
+	interface RowHandler {
+		/**
+		 * Handles a row, which is only valid until the handler returns.
+		 * @param row      The pixels of the row.
+		 * @param imageRow The index of the row in the image.
+		 */
+		void accept(int[] row, int imageRow);
+	}
+
+	/**
+	 * Constructs a buffer of stripes of the given size.
+	 * @param stripeHeight The number of rows in a stripe.
+	 * @param rowLength    The number of pixels in a row.
+	 * @param pool         The pool stripes are handled on, or {@code null}
+	 *                     to handle them on the decoding thread.
+	 * @param handler      Receives every row.
+	 */
+	StripeBuffer(int stripeHeight, int rowLength, ForkJoinPool pool, RowHandler handler) {
+		this.buffers = new int[pool == null ? 1 : BUFFERS_WITH_POOL][stripeHeight][rowLength];
+		for (int[][] buffer : this.buffers) {
+			for (int[] row : buffer) {
+				Arrays.fill(row, WHITE_RGB);
+			}
+		}
+		this.pool = pool;
+		this.handler = handler;
+	}
+
+	/**
+	 * Gets the row the next decoded row should be written into.
+	 * @return The next free row of the current stripe.
+	 */
+	int[] nextRow() {
+		return this.buffers[this.current][this.rowCount];
+	}
+
+	/**
+	 * Marks the row returned by {@link #nextRow()} as written, handing the
+	 * stripe on if it is full.
+	 * @throws java.util.concurrent.CancellationException If the stripe is
+	 * full and the calling thread was interrupted.
+	 */
+	void rowDone() {
+		this.rowCount++;
+		if (this.rowCount == this.buffers[this.current].length) {
+			flush();
+		}
+	}
+
+	/**
+	 * Hands on the last, partial stripe and waits until every stripe has
+	 * been handled.
+	 * @throws RuntimeException If the handler threw on a stripe.
+	 */
+	void finish() {
+		flush();
+		await();
+	}
+
+	/**
+	 * Waits for the stripe being handled on the pool, if any, ignoring its
+	 * outcome. Used when decoding fails, so no task outlives the read.
+	 */
+	void abandon() {
+		if (this.pending != null) {
+			this.pending.quietlyJoin();
+			this.pending = null;
+		}
+	}
+
+	private void flush() {
+		Cancellation.check();
+		if (this.rowCount == 0) {
+			return;
+		}
+		int[][] rows = this.buffers[this.current];
+		int first = this.firstRow;
+		int count = this.rowCount;
+		if (this.pool == null) {
+			handle(rows, first, count);
+		} else {
+			await();
+			this.pending = this.pool.submit(() -> handle(rows, first, count));
+			this.current = (this.current + 1) % this.buffers.length;
+		}
+		this.firstRow += count;
+		this.rowCount = 0;
+	}
+
+	private void await() {
+		if (this.pending != null) {
+			ForkJoinTask<?> task = this.pending;
+			this.pending = null;
+			task.join();
+		}
+	}
+
+	private void handle(int[][] rows, int first, int count) {
+		for (int y = 0; y < count; y++) {
+			this.handler.accept(rows[y], first + y);
+		}
+	}
+}
@@ -0,0 +1,542 @@
+package image;
+
+import org.w3c.dom.Node;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Computes sub-image brightnesses of an image file without holding the
+ * whole image in memory.
+ * The file is decoded once, top to bottom, and its rows are collected
+ * into stripes. Every stripe is added to the luminance sums of the
+ * sub-images it covers and then discarded, so memory use is bounded by
+ * the stripe size and the brightness grid rather than by the image. With
+ * a pool, a stripe is accumulated on the pool while the next one is
+ * decoded.
+ * How the file is decoded depends on its reader. Formats that can read
+ * any region cheaply, and tiled files, are read stripe by stripe through
+ * the source region of an {@link ImageReader}, at any size. Files stored
+ * in a single pass, such as baseline JPEG and non-interlaced PNG, are
+ * decoded into a raster that keeps only its last few rows, and every row
+ * is handed on as soon as the reader reports it; a Java raster cannot
+ * hold 2 to the 31 pixels or more, so only smaller files of these formats
+ * stream. Every other file, such as an interlaced PNG or GIF, a
+ * progressive JPEG, a larger single-pass file or one of an unusual raster
+ * layout, is decoded whole and held in memory while its rows are handed
+ * on, so its memory use is not bounded by the stripes. Such files are
+ * only decoded up to the {@value #WHOLE_DECODE_PROPERTY} system property
+ * pixels, and never from 2 to the 31 pixels on; larger ones fail with an
+ * {@link IOException} before anything is decoded.
+ * Interrupting the calling thread aborts the decoding and abandons the
+ * computation with a {@link java.util.concurrent.CancellationException}.
+ * The reader behaves as the image padded by
+ * {@link ImageManipulator#padImage(Image)}: its dimensions are the padded
+ * ones, and the padding counts as white. The reader returned by
+ * {@link #withoutPadding()} divides the image as it is instead.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see ImageManipulator
+ */
+public class StripedImageReader implements BrightnessSource {
+	/**
+	 * The system property holding the largest number of pixels of a file
+	 * that cannot be streamed and is decoded whole.
+	 */
+	public static final String WHOLE_DECODE_PROPERTY = "ascii.wholeDecodePixels";
+	private static final long DEFAULT_WHOLE_DECODE_PIXELS = 1L << 28;
+	private static final String TOO_LARGE_TO_DECODE_FORMAT =
+			"Image of %d pixels cannot be streamed and is larger than the %d pixels decoded whole: %s";
+	private static final int DEFAULT_STRIPE_PIXELS = 1 << 22;
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	private static final String UNSUPPORTED_FORMAT_MESSAGE = "Unsupported image format: ";
+	private static final int FIRST_IMAGE = 0;
+	private static final int WHITE_RGB = 0xFFFFFF;
+	private static final long UNPADDED_MARK = 1;
+	private static final String STREAMING_FAILED_MESSAGE = "Image rows were not decoded in order: ";
+	private static final String COMPRESSION_NODE = "Compression";
+	private static final String PROGRESSIVE_SCANS_NODE = "NumProgressiveScans";
+	private static final String VALUE_ATTRIBUTE = "value";
+	private static final String SINGLE_SCAN = "1";
+	private static final int RING_ROWS = 8;
+	private final File file;
+	private final boolean netpbm;
+	private final int imageWidth;
+	private final int imageHeight;
+	private final boolean padded;
+	private final int paddedWidth;
+	private final int paddedHeight;
+	private final int stripeHeight;
+
+	/**
+	 * Constructs a reader of the given file, reading only its header.
+	 * Stripes hold about four million pixels.
+	 * @param filename The path to the image file.
+	 * @throws IOException If the file cannot be read or is not a
+	 * supported image.
+	 */
+	public StripedImageReader(String filename) throws IOException {
+		this(filename, 0);
+	}
+
+	/**
+	 * Constructs a reader of the given file, reading only its header.
+	 * @param filename     The path to the image file.
+	 * @param stripeHeight The number of rows decoded at once, or 0 to
+	 *                     decode about four million pixels at once.
+	 * @throws IOException If the file cannot be read or is not a
+	 * supported image.
+	 */
+	public StripedImageReader(String filename, int stripeHeight) throws IOException {
+		this.file = new File(filename);
+		this.netpbm = NetpbmReader.isNetpbm(filename);
+		if (this.netpbm) {
+			Dimension size = NetpbmReader.readSize(filename);
+			this.imageWidth = size.width;
+			this.imageHeight = size.height;
+		} else {
+			ImageInputStream stream = openStream();
+			ImageReader reader = openReader(stream);
+			try {
+				this.imageWidth = reader.getWidth(FIRST_IMAGE);
+				this.imageHeight = reader.getHeight(FIRST_IMAGE);
+			} finally {
+				reader.dispose();
+				stream.close();
+			}
+		}
+		this.padded = true;
+		this.paddedWidth = ImageManipulator.paddedSize(this.imageWidth);
+		this.paddedHeight = ImageManipulator.paddedSize(this.imageHeight);
+		this.stripeHeight = stripeHeight > 0 ? stripeHeight :
+									Math.max(1, DEFAULT_STRIPE_PIXELS / this.imageWidth);
+	}
+
+	private StripedImageReader(StripedImageReader reader) {
+		this.file = reader.file;
+		this.netpbm = reader.netpbm;
+		this.imageWidth = reader.imageWidth;
+		this.imageHeight = reader.imageHeight;
+		this.padded = false;
+		this.paddedWidth = reader.imageWidth;
+		this.paddedHeight = reader.imageHeight;
+		this.stripeHeight = reader.stripeHeight;
+	}
+
+	/**
+	 * Gets a reader of the same file that divides the image as it is,
+	 * without padding it, for resolutions that need not be powers of two.
+	 * @return A reader of the unpadded image.
+	 */
+	public StripedImageReader withoutPadding() {
+		return this.padded ? new StripedImageReader(this) : this;
+	}
+
+	/**
+	 * Reads the dimensions of an image file without decoding it.
+	 * @param filename The path to the image file.
+	 * @return The width and height of the image.
+	 * @throws IOException If the file cannot be read or is not a
+	 * supported image.
+	 */
+	public static Dimension readSize(String filename) throws IOException {
+		StripedImageReader reader = new StripedImageReader(filename);
+		return new Dimension(reader.imageWidth, reader.imageHeight);
+	}
+
+	/**
+	 * Gets the padded width of the image.
+	 * @return The width of the padded image in pixels, or of the image
+	 * itself if it is not padded.
+	 */
+	@Override
+	public int getWidth() {
+		return this.paddedWidth;
+	}
+
+	/**
+	 * Gets the padded height of the image.
+	 * @return The height of the padded image in pixels, or of the image
+	 * itself if it is not padded.
+	 */
+	@Override
+	public int getHeight() {
+		return this.paddedHeight;
+	}
+
+	/**
+	 * Gets a hash of the file's path, size and modification time, which
+	 * differs between the padded and the unpadded reader of a file.
+	 * @return The fingerprint of the file.
+	 */
+	@Override
+	public long getFingerprint() {
+		long hash = FNV_OFFSET_BASIS;
+		for (char c : this.file.getAbsolutePath().toCharArray()) {
+			hash = (hash ^ c) * FNV_PRIME;
+		}
+		hash = (hash ^ this.file.length()) * FNV_PRIME;
+		hash = (hash ^ this.file.lastModified()) * FNV_PRIME;
+		return this.padded ? hash : (hash ^ UNPADDED_MARK) * FNV_PRIME;
+	}
+
+	/**
+	 * Decodes the file stripe by stripe and calculates the brightness
+	 * of every sub-image of the padded image.
+	 * @param resolution The number of sub-images along the width.
+	 * @param pool       The pool stripes are accumulated on while the next
+	 *                   one is decoded, or {@code null} to accumulate them
+	 *                   on the calling thread.
+	 * @return A 2D array of brightness values for the sub-images.
+	 * @throws UncheckedIOException If the file can no longer be decoded.
+	 */
+	@Override
+	public double[][] getSubImageBrightnesses(int resolution, ForkJoinPool pool) {
+		return measure(resolution, false, pool).getBrightnesses();
+	}
+
+	/**
+	 * Decodes the file stripe by stripe and calculates the brightness and
+	 * the average color of every sub-image of the padded image, summing
+	 * luminance and color channels in the same pass.
+	 * @param resolution The number of sub-images along the width.
+	 * @param pool       The pool stripes are accumulated on while the next
+	 *                   one is decoded, or {@code null} to accumulate them
+	 *                   on the calling thread.
+	 * @return The brightness and color of every sub-image.
+	 * @throws UncheckedIOException If the file can no longer be decoded.
+	 */
+	@Override
+	public ColorGrid getSubImageColors(int resolution, ForkJoinPool pool) {
+		return measure(resolution, true, pool);
+	}
+
+	private ColorGrid measure(int resolution, boolean withColors, ForkJoinPool pool) {
+		TileGrid grid = new TileGrid(this.paddedWidth, this.paddedHeight, resolution);
+		int left = ImageManipulator.paddingBefore(this.imageWidth, this.paddedWidth);
+		int top = ImageManipulator.paddingBefore(this.imageHeight, this.paddedHeight);
+		long[][] luminanceSums = new long[grid.getRows()][resolution];
+		long[][] pixelCounts = new long[luminanceSums.length][resolution];
+		long[][] channelSums = withColors ?
+									   new long[luminanceSums.length][resolution * ImageManipulator.CHANNELS] : null;
+		decodeRows(new StripeBuffer(this.stripeHeight, this.imageWidth, pool, (row, imageRow) -> {
+			int subImageRow = grid.rowOf(imageRow + top);
+			addRow(row, left, grid, luminanceSums[subImageRow], pixelCounts[subImageRow],
+					withColors ? channelSums[subImageRow] : null);
+		}), 0);
+		double[][] brightnesses = new double[luminanceSums.length][resolution];
+		int[][] colors = withColors ? new int[luminanceSums.length][resolution] : null;
+		for (int y = 0; y < brightnesses.length; y++) {
+			int subImageHeight = grid.rowStart(y + 1) - grid.rowStart(y);
+			for (int x = 0; x < resolution; x++) {
+				long area = (long) subImageHeight * (grid.columnStart(x + 1) - grid.columnStart(x));
+				long paddingPixels = area - pixelCounts[y][x];
+				brightnesses[y][x] = ImageManipulator.toBrightness(
+						luminanceSums[y][x] + paddingPixels * ImageManipulator.WHITE_LUMINANCE, area);
+				if (withColors) {
+					colors[y][x] = ImageManipulator.averageColor(channelSums[y], x * ImageManipulator.CHANNELS,
+							paddingPixels, area);
+				}
+			}
+		}
+		return new ColorGrid(brightnesses, colors);
+	}
+
+	/**
+	 * Decodes the file stripe by stripe and thresholds every sub-image of
+	 * the padded image down to a square black and white bitmap.
+	 * @param resolution      The number of sub-images along the width.
+	 * @param shapeResolution The width and height of every bitmap.
+	 * @param pool            The pool stripes are thresholded on while the
+	 *                        next one is decoded, or {@code null} to
+	 *                        threshold them on the calling thread.
+	 * @return The packed bitmap of every sub-image.
+	 * @throws UncheckedIOException If the file can no longer be decoded.
+	 */
+	@Override
+	public long[][][] getSubImageShapes(int resolution, int shapeResolution, ForkJoinPool pool) {
+		TileGrid grid = new TileGrid(this.paddedWidth, this.paddedHeight, resolution);
+		int left = ImageManipulator.paddingBefore(this.imageWidth, this.paddedWidth);
+		int top = ImageManipulator.paddingBefore(this.imageHeight, this.paddedHeight);
+		long[][][] shapes = new long[grid.getRows()][resolution][];
+		ShapeAccumulator accumulator = new ShapeAccumulator(grid, shapeResolution);
+		int[] whiteRow = new int[this.paddedWidth];
+		Arrays.fill(whiteRow, WHITE_RGB);
+		for (int paddedRow = 0; paddedRow < top; paddedRow++) {
+			addShapeRow(accumulator, grid, paddedRow, whiteRow, shapes);
+		}
+		decodeRows(new StripeBuffer(this.stripeHeight, this.paddedWidth, pool,
+				(row, imageRow) -> addShapeRow(accumulator, grid, imageRow + top, row, shapes)), left);
+		for (int paddedRow = top + this.imageHeight; paddedRow < this.paddedHeight; paddedRow++) {
+			addShapeRow(accumulator, grid, paddedRow, whiteRow, shapes);
+		}
+		return shapes;
+	}
+
+	private static void addShapeRow(ShapeAccumulator accumulator, TileGrid grid, int paddedRow, int[] row,
+									long[][][] shapes) {
+		int subImageRow = grid.rowOf(paddedRow);
+		int rowInSubImage = paddedRow - grid.rowStart(subImageRow);
+		int subImageHeight = grid.rowStart(subImageRow + 1) - grid.rowStart(subImageRow);
+		if (rowInSubImage == 0) {
+			accumulator.startRow(subImageHeight);
+		}
+		accumulator.addRow(rowInSubImage, row);
+		if (rowInSubImage == subImageHeight - 1) {
+			accumulator.finishRow(shapes[subImageRow]);
+		}
+	}
+
+	/**
+	 * Decodes the image once, top to bottom, collecting its rows into the
+	 * given stripes. Netpbm files need no decoding, so their rows are
+	 * copied straight from the mapped file.
+	 * @param stripes The stripes rows are written into and handed on from.
+	 * @param offset  The index in a row buffer of the row's first pixel.
+	 * @throws UncheckedIOException If the file can no longer be decoded.
+	 */
+	private void decodeRows(StripeBuffer stripes, int offset) {
+		try {
+			if (this.netpbm) {
+				Image image = NetpbmReader.read(this.file.getPath());
+				for (int y = 0; y < this.imageHeight; y++) {
+					image.copyRow(y, stripes.nextRow(), offset);
+					stripes.rowDone();
+				}
+			} else {
+				ImageInputStream stream = openStream();
+				ImageReader reader = openReader(stream);
+				try {
+					if (reader.isRandomAccessEasy(FIRST_IMAGE) || reader.isImageTiled(FIRST_IMAGE)) {
+						readRegions(reader, stripes, offset);
+					} else if (!isSinglePass(reader) || !streamRows(reader, stripes, offset)) {
+						readWhole(reader, stripes, offset);
+					}
+				} finally {
+					reader.dispose();
+					stream.close();
+				}
+			}
+			stripes.finish();
+		} catch (IOException e) {
+			stripes.abandon();
+			throw new UncheckedIOException(e);
+		} catch (RuntimeException e) {
+			stripes.abandon();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the image stripe by stripe through the source region of its
+	 * reader, which is only cheap for readers that need not decode the
+	 * rows above a region to reach it.
+	 */
+	private void readRegions(ImageReader reader, StripeBuffer stripes, int offset) throws IOException {
+		ImageReadParam param = reader.getDefaultReadParam();
+		for (int stripeTop = 0; stripeTop < this.imageHeight; stripeTop += this.stripeHeight) {
+			int rows = Math.min(this.stripeHeight, this.imageHeight - stripeTop);
+			param.setSourceRegion(new Rectangle(0, stripeTop, this.imageWidth, rows));
+			BufferedImage stripe = Cancellation.read(reader, FIRST_IMAGE, param);
+			for (int y = 0; y < rows; y++) {
+				stripe.getRGB(0, y, this.imageWidth, 1, stripes.nextRow(), offset, this.imageWidth);
+				stripes.rowDone();
+			}
+		}
+	}
+
+	/**
+	 * Decodes the whole image at once and hands its rows on, for files
+	 * whose rows cannot be streamed.
+	 * @throws IOException If the file cannot be decoded, or the image has
+	 * more pixels than are decoded whole.
+	 */
+	private void readWhole(ImageReader reader, StripeBuffer stripes, int offset) throws IOException {
+		long pixels = (long) this.imageWidth * this.imageHeight;
+		long maxPixels = Math.min(Long.getLong(WHOLE_DECODE_PROPERTY, DEFAULT_WHOLE_DECODE_PIXELS),
+				Integer.MAX_VALUE);
+		if (pixels > maxPixels) {
+			throw new IOException(String.format(TOO_LARGE_TO_DECODE_FORMAT, pixels, maxPixels, this.file));
+		}
+		BufferedImage image = Cancellation.read(reader, FIRST_IMAGE, reader.getDefaultReadParam());
+		for (int y = 0; y < this.imageHeight; y++) {
+			image.getRGB(0, y, this.imageWidth, 1, stripes.nextRow(), offset, this.imageWidth);
+			stripes.rowDone();
+		}
+	}
+
+	/**
+	 * Decodes the image in one pass into a raster that keeps only its last
+	 * rows, handing every row on as soon as the reader reports it.
+	 * @return Whether the image was decoded, or {@code false} if its raster
+	 * cannot be laid over a ring of rows and nothing was read.
+	 * @throws IOException If the file cannot be decoded, or its reader does
+	 * not report its rows once each and in order.
+	 */
+	private boolean streamRows(ImageReader reader, StripeBuffer stripes, int offset) throws IOException {
+		ImageTypeSpecifier type;
+		try {
+			type = reader.getImageTypes(FIRST_IMAGE).next();
+		} catch (NoSuchElementException e) {
+			return false;
+		}
+		BufferedImage destination = RingDataBuffer.createImage(type, this.imageWidth, this.imageHeight, RING_ROWS);
+		if (destination == null) {
+			return false;
+		}
+		// Reading the metadata may have scanned the whole file.
+		Cancellation.check();
+		ImageReadParam param = reader.getDefaultReadParam();
+		param.setDestination(destination);
+		RowForwarder forwarder = new RowForwarder(stripes, offset);
+		reader.addIIOReadUpdateListener(forwarder);
+		try {
+			Cancellation.read(reader, FIRST_IMAGE, param);
+		} finally {
+			reader.removeIIOReadUpdateListener(forwarder);
+		}
+		if (forwarder.failed || forwarder.nextRow != this.imageHeight) {
+			throw new IOException(STREAMING_FAILED_MESSAGE + this.file);
+		}
+		return true;
+	}
+
+	/**
+	 * Checks the standard metadata of the image for a single progressive
+	 * scan, which interlaced PNG, GIF and progressive JPEG files lack.
+	 * Files that do not state it are not streamed.
+	 */
+	private static boolean isSinglePass(ImageReader reader) throws IOException {
+		IIOMetadata metadata = reader.getImageMetadata(FIRST_IMAGE);
+		if (metadata == null || !metadata.isStandardMetadataFormatSupported()) {
+			return false;
+		}
+		Node root = metadata.getAsTree(IIOMetadataFormatImpl.standardMetadataFormatName);
+		for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (!COMPRESSION_NODE.equals(node.getNodeName())) {
+				continue;
+			}
+			for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+				if (PROGRESSIVE_SCANS_NODE.equals(child.getNodeName())) {
+					Node value = child.getAttributes().getNamedItem(VALUE_ATTRIBUTE);
+					return value != null && SINGLE_SCAN.equals(value.getNodeValue());
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Hands every row the reader reports on to the stripes. A pass after
+	 * the first, or a row out of order, aborts the read, since rows that
+	 * were handed on cannot be taken back.
+	 */
+	private final class RowForwarder implements IIOReadUpdateListener {
+		private final StripeBuffer stripes;
+		private final int offset;
+		private int nextRow = 0;
+		private boolean failed = false;
+
+		private RowForwarder(StripeBuffer stripes, int offset) {
+			this.stripes = stripes;
+			this.offset = offset;
+		}
+
+		@Override
+		public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass, int maxPass,
+								int minX, int minY, int periodX, int periodY, int[] bands) {
+			if (pass != minPass || periodX != 1 || periodY != 1) {
+				fail(source);
+			}
+		}
+
+		@Override
+		public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY, int width,
+								int height, int periodX, int periodY, int[] bands) {
+			if (this.failed) {
+				return;
+			}
+			if (minX != 0 || width != imageWidth || periodX != 1 || periodY != 1 || minY != this.nextRow
+						|| height > RING_ROWS) {
+				fail(source);
+				return;
+			}
+			for (int y = minY; y < minY + height; y++) {
+				theImage.getRGB(0, y, imageWidth, 1, this.stripes.nextRow(), this.offset, imageWidth);
+				this.stripes.rowDone();
+			}
+			this.nextRow += height;
+		}
+
+		@Override
+		public void passComplete(ImageReader source, BufferedImage theImage) {
+		}
+
+		@Override
+		public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass, int minPass,
+										 int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+		}
+
+		@Override
+		public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY,
+									int width, int height, int periodX, int periodY, int[] bands) {
+		}
+
+		@Override
+		public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+		}
+
+		private void fail(ImageReader source) {
+			this.failed = true;
+			source.abort();
+		}
+	}
+
+	private static void addRow(int[] row, int left, TileGrid grid, long[] luminanceSums,
+							   long[] pixelCounts, long[] channelSums) {
+		for (int x = 0; x < luminanceSums.length; x++) {
+			int from = Math.max(0, grid.columnStart(x) - left);
+			int to = Math.min(row.length, grid.columnStart(x + 1) - left);
+			if (channelSums != null) {
+				luminanceSums[x] += ImageManipulator.addChannels(row, from, Math.max(from, to), channelSums,
+						x * ImageManipulator.CHANNELS);
+			} else {
+				luminanceSums[x] += ImageManipulator.sumLuminance(row, from, to);
+			}
+			pixelCounts[x] += Math.max(0, to - from);
+		}
+	}
+
+	private ImageInputStream openStream() throws IOException {
+		ImageInputStream stream = ImageIO.createImageInputStream(this.file);
+		if (stream == null) {
+			throw new IOException(UNSUPPORTED_FORMAT_MESSAGE + this.file);
+		}
+		return stream;
+	}
+
+	private ImageReader openReader(ImageInputStream stream) throws IOException {
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+		if (!readers.hasNext()) {
+			stream.close();
+			throw new IOException(UNSUPPORTED_FORMAT_MESSAGE + this.file);
+		}
+		ImageReader reader = readers.next();
+		reader.setInput(stream);
+		return reader;
+	}
+}
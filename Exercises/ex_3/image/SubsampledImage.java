@@ -0,0 +1,219 @@
+package image;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * An image file that is decoded only in as much detail as the requested
+ * resolution needs.
+ * Every sub-image is sampled by at least a given number of pixels along
+ * each side: the file is decoded through the source subsampling of an
+ * {@link javax.imageio.ImageReader}, keeping only every n-th pixel of
+ * every n-th row, with n the largest power of two that still leaves that
+ * many samples. Coarse resolutions of large photos therefore decode a
+ * small fraction of their pixels. The decoded image is kept, and the file
+ * is decoded again only when a finer resolution needs more detail.
+ * Subsampling by powers of two keeps the geometry of padded images: the
+ * subsampled image pads to the padded size divided by the subsampling, so
+ * it is divided into the same grid of sub-images.
+ * Like {@link StripedImageReader}, the source behaves as the padded image,
+ * and the source returned by {@link #withoutPadding()} as the image as it
+ * is. Both share the decoded image.
+ * Interrupting the calling thread aborts a subsampled decode, and the
+ * image decoded before, if any, is kept.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see Image#Image(String, int)
+ */
+public class SubsampledImage implements BrightnessSource {
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	private static final long SUBSAMPLED_MARK = 2;
+	private static final long UNPADDED_MARK = 1;
+	private static final int FULL_DETAIL = 1;
+	private final Decoder decoder;
+	private final boolean padded;
+	private final int width;
+	private final int height;
+
+	/**
+	 * Holds the image decoded in the most detail needed so far, shared by
+	 * the padded and the unpadded source.
+	 */
+	private static final class Decoder {
+		private final String filename;
+		private final boolean netpbm;
+		private final int imageWidth;
+		private final int imageHeight;
+		private final int minSamples;
+		private Image image = null;
+		private Image paddedImage = null;
+		private int subsampling = 0;
+
+		private Decoder(String filename, int imageWidth, int imageHeight, int minSamples) {
+			this.filename = filename;
+			this.netpbm = NetpbmReader.isNetpbm(filename);
+			this.imageWidth = imageWidth;
+			this.imageHeight = imageHeight;
+			this.minSamples = minSamples;
+		}
+
+		/**
+		 * Gets the image decoded with at most the given subsampling,
+		 * decoding it again if it was decoded more coarsely.
+		 * @param subsampling The coarsest subsampling that is detailed enough.
+		 * @param padded      Whether to get the image padded to powers of two.
+		 * @return The decoded image.
+		 */
+		private synchronized Image get(int subsampling, boolean padded) {
+			if (this.image == null || subsampling < this.subsampling) {
+				try {
+					if (subsampling == FULL_DETAIL) {
+						this.image = RasterCache.loadImage(this.filename);
+					} else if (this.netpbm) {
+						this.image = NetpbmReader.read(this.filename, subsampling);
+					} else {
+						this.image = new Image(this.filename, subsampling);
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				this.paddedImage = null;
+				this.subsampling = subsampling;
+			}
+			if (!padded) {
+				return this.image;
+			}
+			if (this.paddedImage == null) {
+				this.paddedImage = ImageManipulator.padImage(this.image);
+			}
+			return this.paddedImage;
+		}
+	}
+
+	/**
+	 * Constructs a source of the given file, reading only its header.
+	 * Nothing is decoded until brightnesses are requested.
+	 * @param filename   The path to the image file.
+	 * @param minSamples The smallest number of decoded pixels along each
+	 *                   side of a sub-image.
+	 * @throws IOException If the file cannot be read or is not a
+	 * supported image.
+	 */
+	public SubsampledImage(String filename, int minSamples) throws IOException {
+		Dimension size = StripedImageReader.readSize(filename);
+		this.decoder = new Decoder(filename, size.width, size.height, minSamples);
+		this.padded = true;
+		this.width = ImageManipulator.paddedSize(size.width);
+		this.height = ImageManipulator.paddedSize(size.height);
+	}
+
+	private SubsampledImage(Decoder decoder) {
+		this.decoder = decoder;
+		this.padded = false;
+		this.width = decoder.imageWidth;
+		this.height = decoder.imageHeight;
+	}
+
+	/**
+	 * Gets a source of the same file that divides the image as it is,
+	 * without padding it. The two sources share the decoded image.
+	 * @return A source of the unpadded image.
+	 */
+	public SubsampledImage withoutPadding() {
+		return this.padded ? new SubsampledImage(this.decoder) : this;
+	}
+
+	/**
+	 * Gets the padded width of the image.
+	 * @return The width of the padded image in pixels, or of the image
+	 * itself if it is not padded.
+	 */
+	@Override
+	public int getWidth() {
+		return this.width;
+	}
+
+	/**
+	 * Gets the padded height of the image.
+	 * @return The height of the padded image in pixels, or of the image
+	 * itself if it is not padded.
+	 */
+	@Override
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * Gets a hash of the file's path, size and modification time, which
+	 * differs between the padded and the unpadded source of a file.
+	 * A grid computed from a more detailed decode than its resolution
+	 * needs is only more accurate, so grids are shared whatever was
+	 * decoded when they were computed.
+	 * @return The fingerprint of the file.
+	 */
+	@Override
+	public long getFingerprint() {
+		File file = new File(this.decoder.filename);
+		long hash = FNV_OFFSET_BASIS;
+		for (char c : file.getAbsolutePath().toCharArray()) {
+			hash = (hash ^ c) * FNV_PRIME;
+		}
+		hash = (hash ^ file.length()) * FNV_PRIME;
+		hash = (hash ^ file.lastModified()) * FNV_PRIME;
+		hash = (hash ^ SUBSAMPLED_MARK) * FNV_PRIME;
+		return this.padded ? hash : (hash ^ UNPADDED_MARK) * FNV_PRIME;
+	}
+
+	/**
+	 * Calculates the brightness of every sub-image, decoding the file in
+	 * more detail first if needed.
+	 * @param resolution The number of sub-images along the width.
+	 * @param pool       The pool to compute on, or {@code null} to compute
+	 *                   on the calling thread.
+	 * @return A 2D array of brightness values for the sub-images.
+	 * @throws UncheckedIOException If the file can no longer be decoded.
+	 */
+	@Override
+	public double[][] getSubImageBrightnesses(int resolution, ForkJoinPool pool) {
+		return decode(resolution, this.decoder.minSamples).getSubImageBrightnesses(resolution, pool);
+	}
+
+	/**
+	 * Calculates the brightness and the average color of every sub-image,
+	 * decoding the file in more detail first if needed.
+	 * @param resolution The number of sub-images along the width.
+	 * @param pool       The pool to compute on, or {@code null} to compute
+	 *                   on the calling thread.
+	 * @return The brightness and color of every sub-image.
+	 * @throws UncheckedIOException If the file can no longer be decoded.
+	 */
+	@Override
+	public ColorGrid getSubImageColors(int resolution, ForkJoinPool pool) {
+		return decode(resolution, this.decoder.minSamples).getSubImageColors(resolution, pool);
+	}
+
+	/**
+	 * Thresholds every sub-image down to a bitmap, decoding the file in
+	 * enough detail for at least one pixel per bit first if needed.
+	 * @param resolution      The number of sub-images along the width.
+	 * @param shapeResolution The width and height of every bitmap.
+	 * @param pool            The pool to compute on, or {@code null} to
+	 *                        compute on the calling thread.
+	 * @return The packed bitmap of every sub-image.
+	 * @throws UncheckedIOException If the file can no longer be decoded.
+	 */
+	@Override
+	public long[][][] getSubImageShapes(int resolution, int shapeResolution, ForkJoinPool pool) {
+		return decode(resolution, Math.max(this.decoder.minSamples, shapeResolution))
+					   .getSubImageShapes(resolution, shapeResolution, pool);
+	}
+
+	private Image decode(int resolution, int minSamples) {
+		int subImageWidth = this.width / resolution;
+		int subsampling = Integer.highestOneBit(Math.max(FULL_DETAIL, subImageWidth / minSamples));
+		return this.decoder.get(subsampling, this.padded);
+	}
+}
@@ -0,0 +1,136 @@
+package image;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * An integral image of the weighted luminance of an {@link Image}.
+ * Luminance is summed in fixed point with integer weights, so the sums
+ * are exact and a rectangle of white pixels always sums to exactly its
+ * area times the white luminance.
+ * Entry {@code (y, x)} holds the sum of the luminance of every pixel
+ * above and to the left of {@code (y, x)}, so the total luminance of any
+ * axis-aligned rectangle can be read with four lookups, regardless of
+ * its size.
+ * The table is built once per image, first summing every row and then
+ * accumulating the rows downwards. Both passes can run in bands on a
+ * {@link ForkJoinPool}. Interrupting the thread building the table
+ * abandons it between rows.
+ * A table can also be viewed as the table of the image surrounded by white
+ * padding, which is how padded images are summed without building a table
+ * of the padded size.
+ * The table holds a {@code long} for every pixel, plus one row and one
+ * column, and lives as long as its image: twice the memory of the image's
+ * raster, or 1 GiB for the 2^27 pixels above which the shell streams
+ * images instead of loading them. Larger images can only be streamed.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see ImageManipulator
+ */
+class SummedAreaTable {
+	// Some virtual machines reserve a few header words in every array.
+	private static final long MAX_ENTRIES = Integer.MAX_VALUE - 8;
+	private static final String TOO_LARGE_MESSAGE =
+			"Image too large for a summed-area table, stream it instead: %dx%d pixels";
+	private final long[] sums;
+	private final int stride;
+	private final int width;
+	private final int height;
+	private final int left;
+	private final int top;
+
+	/**
+	 * Builds the summed-area table of the given image.
+	 * @param image The image whose luminance is summed.
+	 * @param pool  The pool to build the table on, or {@code null}
+	 *              to build it on the calling thread.
+	 * @throws IllegalArgumentException If the table of the image would not
+	 * fit in an array.
+	 * @throws java.util.concurrent.CancellationException If the calling
+	 * thread was interrupted while building the table.
+	 */
+	SummedAreaTable(Image image, ForkJoinPool pool) {
+		this.stride = image.getWidth() + 1;
+		long entries = (long) this.stride * (image.getHeight() + 1);
+		if (entries > MAX_ENTRIES) {
+			throw new IllegalArgumentException(String.format(TOO_LARGE_MESSAGE, image.getWidth(),
+					image.getHeight()));
+		}
+		this.sums = new long[(int) entries];
+		this.width = image.getWidth();
+		this.height = image.getHeight();
+		this.left = 0;
+		this.top = 0;
+		BandTask.forEachBand(pool, image.getHeight(), (from, to) -> sumRows(image, from, to));
+		BandTask.forEachBand(pool, image.getWidth(), (from, to) -> accumulateColumns(image, from, to));
+	}
+
+	private SummedAreaTable(SummedAreaTable table, int left, int top) {
+		this.sums = table.sums;
+		this.stride = table.stride;
+		this.width = table.width;
+		this.height = table.height;
+		this.left = left;
+		this.top = top;
+	}
+
+	/**
+	 * Views this table as the table of its image after padding it with white.
+	 * The view shares the sums of this table.
+	 * @param left The number of padding columns left of the image.
+	 * @param top  The number of padding rows above the image.
+	 * @return The table of the padded image.
+	 */
+	SummedAreaTable withPadding(int left, int top) {
+		return new SummedAreaTable(this, left, top);
+	}
+
+	/**
+	 * Sums the luminance of the pixels in rows {@code [top, bottom)}
+	 * and columns {@code [left, right)}.
+	 * Pixels of the padding, if any, count as white.
+	 * @param top    The first row of the rectangle.
+	 * @param left   The first column of the rectangle.
+	 * @param bottom The row just below the rectangle.
+	 * @param right  The column just right of the rectangle.
+	 * @return The total fixed-point luminance of the rectangle.
+	 * @see ImageManipulator#fixedPointLuminance(int)
+	 */
+	long sum(int top, int left, int bottom, int right) {
+		int innerTop = Math.max(0, top - this.top);
+		int innerLeft = Math.max(0, left - this.left);
+		int innerBottom = Math.min(this.height, bottom - this.top);
+		int innerRight = Math.min(this.width, right - this.left);
+		long area = (long) (bottom - top) * (right - left);
+		if (innerTop >= innerBottom || innerLeft >= innerRight) {
+			return area * ImageManipulator.WHITE_LUMINANCE;
+		}
+		long innerArea = (long) (innerBottom - innerTop) * (innerRight - innerLeft);
+		return sums[innerBottom * stride + innerRight] - sums[innerTop * stride + innerRight]
+					   - sums[innerBottom * stride + innerLeft] + sums[innerTop * stride + innerLeft]
+					   + (area - innerArea) * ImageManipulator.WHITE_LUMINANCE;
+	}
+
+	private void sumRows(Image image, int fromRow, int toRow) {
+		int[] row = new int[image.getWidth()];
+		for (int y = fromRow; y < toRow; y++) {
+			Cancellation.check();
+			image.getRow(y, row);
+			long rowSum = 0;
+			int current = (y + 1) * stride;
+			for (int x = 0; x < row.length; x++) {
+				rowSum += ImageManipulator.fixedPointLuminance(row[x]);
+				sums[current + x + 1] = rowSum;
+			}
+		}
+	}
+
+	private void accumulateColumns(Image image, int fromColumn, int toColumn) {
+		for (int y = 1; y < image.getHeight(); y++) {
+			Cancellation.check();
+			int above = y * stride;
+			int current = above + stride;
+			for (int x = fromColumn + 1; x <= toColumn; x++) {
+				sums[current + x] += sums[above + x];
+			}
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package image;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tracks the sub-images of successive frames of the same size, so that
+ * only sub-images whose pixels changed since the previous frame are
+ * measured again.
+ * Every sub-image is fingerprinted with a 64-bit FNV-1a hash of its
+ * pixels, and its luminance is summed in the same pass over its rows, so
+ * every pixel is read once. Sub-images whose fingerprint matches the one
+ * of the previous frame keep their previous brightness, the others take
+ * the brightness of their sum, without a summed-area table.
+ * A change of frame size or resolution measures every sub-image again.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see ImageManipulator#getSubImageBrightnesses(Image, int, ForkJoinPool)
+ */
+public class TileDeltaTracker {
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	private int width = 0;
+	private int height = 0;
+	private int resolution = 0;
+	private long[][] fingerprints = null;
+	private double[][] brightnesses = null;
+	private boolean[][] changedTiles = null;
+	private int reusedTiles = 0;
+
+	/**
+	 * Calculates the brightness of every sub-image of the next frame,
+	 * reusing the brightness of sub-images that did not change.
+	 * A new grid is returned on every call, so grids of earlier frames
+	 * stay valid.
+	 * @param image      The next frame.
+	 * @param resolution The number of sub-images along the width.
+	 * @param pool       The pool to compute on, or {@code null} to compute
+	 *                   on the calling thread.
+	 * @return A 2D array of brightness values for the sub-images.
+	 */
+	public double[][] update(Image image, int resolution, ForkJoinPool pool) {
+		TileGrid grid = new TileGrid(image.getWidth(), image.getHeight(), resolution);
+		int rows = grid.getRows();
+		long[][] previousFingerprints = image.getWidth() == this.width && image.getHeight() == this.height
+												&& resolution == this.resolution ? this.fingerprints : null;
+		double[][] previousBrightnesses = this.brightnesses;
+		long[][] newFingerprints = new long[rows][resolution];
+		double[][] newBrightnesses = new double[rows][resolution];
+		boolean[][] changed = new boolean[rows][resolution];
+		BandTask.forEachBand(pool, rows, (fromRow, toRow) -> {
+			int[] row = new int[image.getWidth()];
+			long[] luminanceSums = new long[resolution];
+			for (int y = fromRow; y < toRow; y++) {
+				scanRow(image, grid, y, row, newFingerprints[y], luminanceSums);
+				int subImageHeight = grid.rowStart(y + 1) - grid.rowStart(y);
+				for (int x = 0; x < resolution; x++) {
+					changed[y][x] = previousFingerprints == null
+											|| newFingerprints[y][x] != previousFingerprints[y][x];
+					if (changed[y][x]) {
+						long area = (long) subImageHeight * (grid.columnStart(x + 1) - grid.columnStart(x));
+						newBrightnesses[y][x] = ImageManipulator.toBrightness(luminanceSums[x], area);
+					} else {
+						newBrightnesses[y][x] = previousBrightnesses[y][x];
+					}
+				}
+			}
+		});
+		int reused = 0;
+		for (boolean[] changedRow : changed) {
+			for (boolean isChanged : changedRow) {
+				if (!isChanged) {
+					reused++;
+				}
+			}
+		}
+		this.width = image.getWidth();
+		this.height = image.getHeight();
+		this.resolution = resolution;
+		this.fingerprints = newFingerprints;
+		this.brightnesses = newBrightnesses;
+		this.changedTiles = changed;
+		this.reusedTiles = reused;
+		return newBrightnesses;
+	}
+
+	/**
+	 * Gets which sub-images of the last frame were measured again.
+	 * A new array is returned by every update, so masks of earlier frames
+	 * stay valid.
+	 * @return A 2D array, {@code true} for every sub-image whose pixels
+	 * changed since the frame before it, or {@code null} before the first
+	 * update.
+	 */
+	public boolean[][] getChangedTiles() {
+		return this.changedTiles;
+	}
+
+	/**
+	 * Gets the number of sub-images of the last frame whose brightness
+	 * was reused from the frame before it.
+	 * @return The number of reused sub-images.
+	 */
+	public int getReusedTiles() {
+		return this.reusedTiles;
+	}
+
+	/**
+	 * Fingerprints one row of sub-images and sums their luminance, reading
+	 * every pixel once.
+	 */
+	private static void scanRow(Image image, TileGrid grid, int gridRow, int[] row, long[] fingerprints,
+								long[] luminanceSums) {
+		Arrays.fill(fingerprints, FNV_OFFSET_BASIS);
+		Arrays.fill(luminanceSums, 0);
+		for (int y = grid.rowStart(gridRow); y < grid.rowStart(gridRow + 1); y++) {
+			image.copyRow(y, row, 0);
+			for (int x = 0; x < fingerprints.length; x++) {
+				long hash = fingerprints[x];
+				long luminance = 0;
+				for (int pixel = grid.columnStart(x); pixel < grid.columnStart(x + 1); pixel++) {
+					hash = (hash ^ row[pixel]) * FNV_PRIME;
+					luminance += ImageManipulator.fixedPointLuminance(row[pixel]);
+				}
+				fingerprints[x] = hash;
+				luminanceSums[x] += luminance;
+			}
+		}
+	}
+}
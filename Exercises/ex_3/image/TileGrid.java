@@ -0,0 +1,108 @@
+package image;
+
+/**
+ * Divides an image into a grid of sub-images at a given resolution.
+ * The resolution is the number of sub-images along the width, and the
+ * number of rows is chosen so that sub-images are as close to square as
+ * possible. When the width or height is not a multiple of the number of
+ * sub-images along it, the edges between sub-images are rounded down to
+ * whole pixels, so sub-images differ in size by at most one pixel and
+ * every pixel belongs to exactly one of them. Averages over a sub-image
+ * are taken over its own area.
+ * On an image padded to powers of two at a power-of-two resolution, every
+ * sub-image is the same square.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see ImageManipulator
+ */
+final class TileGrid {
+	private final int width;
+	private final int height;
+	private final int columns;
+	private final int rows;
+
+	/**
+	 * Constructs the grid of an image at a given resolution.
+	 * @param width      The width of the image.
+	 * @param height     The height of the image.
+	 * @param resolution The number of sub-images along the width, at most
+	 *                   the width.
+	 */
+	TileGrid(int width, int height, int resolution) {
+		this.width = width;
+		this.height = height;
+		this.columns = resolution;
+		this.rows = rowsFor(width, height, resolution);
+	}
+
+	/**
+	 * Gets the number of rows of sub-images an image is divided into.
+	 * @param width      The width of the image.
+	 * @param height     The height of the image.
+	 * @param resolution The number of sub-images along the width.
+	 * @return The number of rows, between 1 and the height.
+	 */
+	static int rowsFor(int width, int height, int resolution) {
+		long rows = Math.round((double) height * resolution / width);
+		return (int) Math.max(1, Math.min(height, rows));
+	}
+
+	/**
+	 * Gets the width of the divided image.
+	 * @return The width in pixels.
+	 */
+	int getWidth() {
+		return this.width;
+	}
+
+	/**
+	 * Gets the number of sub-images along the width.
+	 * @return The number of columns.
+	 */
+	int getColumns() {
+		return this.columns;
+	}
+
+	/**
+	 * Gets the number of sub-images along the height.
+	 * @return The number of rows.
+	 */
+	int getRows() {
+		return this.rows;
+	}
+
+	/**
+	 * Gets the first pixel column of a column of sub-images.
+	 * @param column The column, or the number of columns for the width.
+	 * @return The index of the column's first pixel.
+	 */
+	int columnStart(int column) {
+		return (int) ((long) column * this.width / this.columns);
+	}
+
+	/**
+	 * Gets the first pixel row of a row of sub-images.
+	 * @param row The row, or the number of rows for the height.
+	 * @return The index of the row's first pixel.
+	 */
+	int rowStart(int row) {
+		return (int) ((long) row * this.height / this.rows);
+	}
+
+	/**
+	 * Gets the row of sub-images a pixel row belongs to.
+	 * @param pixelRow The index of the pixel row.
+	 * @return The row of sub-images whose pixels include the pixel row.
+	 */
+	int rowOf(int pixelRow) {
+		return (int) ((((long) pixelRow + 1) * this.rows - 1) / this.height);
+	}
+
+	/**
+	 * Checks whether every sub-image has the same size, which is when the
+	 * number of sub-images divides both the width and the height.
+	 * @return {@code true} if all sub-images are the same size.
+	 */
+	boolean isUniform() {
+		return this.width % this.columns == 0 && this.height % this.rows == 0;
+	}
+}
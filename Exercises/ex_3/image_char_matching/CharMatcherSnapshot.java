@@ -0,0 +1,165 @@
+package image_char_matching;
+
+import image_char_matching.brightness_rounding_strategies.RoundingStrategy;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An immutable copy of the state of a {@link SubImgCharMatcher}, taken by
+ * {@link SubImgCharMatcher#freeze()}.
+ * All the tables used for matching are built when the snapshot is taken
+ * and never change afterwards, so a snapshot can be shared by any number
+ * of threads without locks. Changes made to the matcher later are not
+ * seen by snapshots taken before them.
+ * Brightness values are matched through a dense lookup table in which the
+ * rounding strategy was evaluated once per bucket, so most of them take a
+ * single array access. Only buckets that straddle a boundary between two
+ * characters fall back to the strategy itself. Shapes are matched against
+ * the glyph bitmaps of all characters, copied into one array in order.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see SubImgCharMatcher
+ */
+public final class CharMatcherSnapshot {
+	private static final double INITIAL_MIN_BRIGHTNESS = 1.0;
+	private static final double INITIAL_MAX_BRIGHTNESS = 0.0;
+	private static final int LOOKUP_TABLE_BUCKETS = 4096;
+	private static final char MIXED_BUCKET = '\uFFFF';
+	private final TreeMap<Double, Character> normalizedChars = new TreeMap<>();
+	private final char[] lookupTable = new char[LOOKUP_TABLE_BUCKETS];
+	private final RoundingStrategy roundingStrategy;
+	private final char[] sortedChars;
+	private final long[] shapeBits;
+	private final int shapeWords;
+	private final int shapeResolution;
+	private final long version;
+
+	/**
+	 * Constructs a snapshot of a character set and a rounding strategy.
+	 * @param chars            The characters to match. The set is not kept.
+	 * @param roundingStrategy The strategy matching brightness values to
+	 *                         characters. It must not keep any state.
+	 * @param glyphCache       The cache holding the glyphs of the characters.
+	 * @param version          The version of the matcher the snapshot is
+	 *                         taken from.
+	 */
+	CharMatcherSnapshot(Set<Character> chars, RoundingStrategy roundingStrategy, GlyphCache glyphCache,
+						long version) {
+		this.roundingStrategy = roundingStrategy;
+		this.version = version;
+		this.shapeResolution = glyphCache.getResolution();
+		this.shapeWords = Glyph.wordCount(this.shapeResolution);
+		this.sortedChars = new char[chars.size()];
+		int count = 0;
+		for (Character chr : chars) {
+			this.sortedChars[count++] = chr;
+		}
+		Arrays.sort(this.sortedChars);
+		this.shapeBits = new long[this.sortedChars.length * this.shapeWords];
+		normalizeGivenCharBrightness(chars, glyphCache);
+		buildLookupTable();
+		buildShapeTable(glyphCache);
+	}
+
+	/**
+	 * Gets the character that best matches the given brightness value.
+	 * @param brightness The brightness value to match.
+	 * @return The character corresponding to the brightness value.
+	 */
+	public char getCharByImageBrightness(double brightness) {
+		int bucket = (int) (brightness * LOOKUP_TABLE_BUCKETS);
+		if (bucket >= 0 && bucket < LOOKUP_TABLE_BUCKETS && this.lookupTable[bucket] != MIXED_BUCKET) {
+			return this.lookupTable[bucket];
+		}
+		return this.roundingStrategy.getCharByImageBrightness(brightness, this.normalizedChars);
+	}
+
+	/**
+	 * Gets the character whose glyph is closest in shape to the given
+	 * bitmap, that is, differs from it in the fewest bits. Ties go to the
+	 * smallest character.
+	 * @param bits A bitmap of {@link #getShapeResolution()} bits per side,
+	 *             packed like the bitmaps of glyphs.
+	 * @return The character whose glyph best matches the bitmap.
+	 * @see Glyph
+	 */
+	public char getCharByImageShape(long[] bits) {
+		int bestIndex = 0;
+		int bestDistance = Integer.MAX_VALUE;
+		for (int i = 0; i < this.sortedChars.length; i++) {
+			int offset = i * this.shapeWords;
+			int distance = 0;
+			for (int word = 0; word < this.shapeWords; word++) {
+				distance += Long.bitCount(bits[word] ^ this.shapeBits[offset + word]);
+			}
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				bestIndex = i;
+			}
+		}
+		return this.sortedChars[bestIndex];
+	}
+
+	/**
+	 * Gets the width and height of the bitmaps matched by
+	 * {@link #getCharByImageShape(long[])}.
+	 * @return The resolution of the glyph bitmaps.
+	 */
+	public int getShapeResolution() {
+		return this.shapeResolution;
+	}
+
+	/**
+	 * Gets the version of the matcher this snapshot was taken from.
+	 * @return The version of the mapping.
+	 * @see SubImgCharMatcher#getVersion()
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
+	private void normalizeGivenCharBrightness(Set<Character> chars, GlyphCache glyphCache) {
+		double minBrightness = INITIAL_MIN_BRIGHTNESS;
+		double maxBrightness = INITIAL_MAX_BRIGHTNESS;
+		for (Character chr : chars) {
+			double brightness = glyphCache.getGlyph(chr).getBrightness();
+			if (brightness < minBrightness) {
+				minBrightness = brightness;
+			} else if (brightness > maxBrightness) {
+				maxBrightness = brightness;
+			}
+		}
+		for (Character chr : chars) {
+			double newCharBrightness = (glyphCache.getGlyph(chr).getBrightness() - minBrightness) /
+											   (maxBrightness - minBrightness);
+			if (!this.normalizedChars.containsKey(newCharBrightness) ||
+						chr < this.normalizedChars.get(newCharBrightness)) {
+				this.normalizedChars.put(newCharBrightness, chr);
+			}
+		}
+	}
+
+	private void buildLookupTable() {
+		if (this.normalizedChars.isEmpty()) {
+			Arrays.fill(this.lookupTable, MIXED_BUCKET);
+			return;
+		}
+		// Every rounding strategy is monotonic in the brightness, so a bucket
+		// whose two edges map to the same character maps to it entirely.
+		char lowerEdge = this.roundingStrategy.getCharByImageBrightness(0, this.normalizedChars);
+		for (int bucket = 0; bucket < LOOKUP_TABLE_BUCKETS; bucket++) {
+			char upperEdge = this.roundingStrategy.getCharByImageBrightness(
+					(double) (bucket + 1) / LOOKUP_TABLE_BUCKETS, this.normalizedChars);
+			this.lookupTable[bucket] = lowerEdge == upperEdge ? lowerEdge : MIXED_BUCKET;
+			lowerEdge = upperEdge;
+		}
+	}
+
+	private void buildShapeTable(GlyphCache glyphCache) {
+		for (int i = 0; i < this.sortedChars.length; i++) {
+			System.arraycopy(glyphCache.getGlyph(this.sortedChars[i]).getBits(), 0, this.shapeBits,
+					i * this.shapeWords, this.shapeWords);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package image_char_matching;
+
+/**
+ * The rasterized form of a single character.
+ * Holds the character's black and white bitmap, packed row by row into
+ * {@code long} words (bit {@code y * resolution + x} is set when the
+ * pixel at row {@code y}, column {@code x} is white), and its brightness,
+ * which is the fraction of white pixels.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see CharConverter
+ * @see GlyphCache
+ */
+public final class Glyph {
+	private static final int BITS_PER_WORD = Long.SIZE;
+	private static final int WORD_SHIFT = 6;
+	private final int resolution;
+	private final long[] bits;
+	private final double brightness;
+
+	/**
+	 * Constructs a glyph from its packed bitmap.
+	 * @param resolution The width and height of the bitmap.
+	 * @param bits       The packed bitmap.
+	 * @param brightness The fraction of white pixels in the bitmap.
+	 */
+	Glyph(int resolution, long[] bits, double brightness) {
+		this.resolution = resolution;
+		this.bits = bits;
+		this.brightness = brightness;
+	}
+
+	/**
+	 * Packs a black and white bitmap into a glyph.
+	 * @param pixels A square array whose {@code true} cells are white.
+	 * @return The glyph of the bitmap.
+	 */
+	static Glyph fromBoolArray(boolean[][] pixels) {
+		int resolution = pixels.length;
+		long[] bits = new long[wordCount(resolution)];
+		int whitePixels = 0;
+		for (int y = 0; y < resolution; y++) {
+			for (int x = 0; x < resolution; x++) {
+				if (pixels[y][x]) {
+					int index = y * resolution + x;
+					bits[index >>> WORD_SHIFT] |= 1L << index;
+					whitePixels++;
+				}
+			}
+		}
+		return new Glyph(resolution, bits, (double) whitePixels / (resolution * resolution));
+	}
+
+	/**
+	 * Unpacks the glyph into a black and white bitmap.
+	 * @return A square array whose {@code true} cells are white.
+	 */
+	boolean[][] toBoolArray() {
+		boolean[][] pixels = new boolean[this.resolution][this.resolution];
+		for (int y = 0; y < this.resolution; y++) {
+			for (int x = 0; x < this.resolution; x++) {
+				int index = y * this.resolution + x;
+				pixels[y][x] = (this.bits[index >>> WORD_SHIFT] & (1L << index)) != 0;
+			}
+		}
+		return pixels;
+	}
+
+	/**
+	 * Gets the number of {@code long} words that hold a bitmap.
+	 * @param resolution The width and height of the bitmap.
+	 * @return The number of words.
+	 */
+	static int wordCount(int resolution) {
+		return (resolution * resolution + BITS_PER_WORD - 1) / BITS_PER_WORD;
+	}
+
+	/**
+	 * Gets the width and height of the glyph's bitmap.
+	 * @return The resolution of the bitmap.
+	 */
+	public int getResolution() {
+		return this.resolution;
+	}
+
+	/**
+	 * Gets the packed bitmap. The returned array must not be modified.
+	 * @return The packed bitmap.
+	 */
+	public long[] getBits() {
+		return this.bits;
+	}
+
+	/**
+	 * Gets the fraction of white pixels in the glyph.
+	 * @return The brightness of the glyph.
+	 */
+	public double getBrightness() {
+		return this.brightness;
+	}
+}
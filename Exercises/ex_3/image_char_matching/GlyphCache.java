@@ -0,0 +1,284 @@
+package image_char_matching;
+
+import java.awt.Font;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of rasterized glyphs that persists across runs.
+ * Rendering a glyph requires bootstrapping AWT fonts, which dominates the
+ * start-up time of a run that adds many characters. The cache keeps every
+ * glyph it has rendered, and stores them in a small binary file that is
+ * read back, without touching AWT, the next time the cache is created.
+ * The file name is derived from the font, the glyph resolution and the
+ * JDK and platform that rendered the glyphs, since any of them may change
+ * how a glyph looks. The directory of the file can be set with the
+ * {@value #CACHE_DIR_PROPERTY} system property.
+ * The cache is shared by every thread converting images. Glyphs are kept
+ * in a concurrent map and rendered at most once: a thread asking for a
+ * glyph that another thread is rendering waits for its future, while
+ * lookups of other glyphs go on without locking. Glyphs are rendered
+ * outside the map, since a slow render inside one of its computations
+ * would also block the other keys of its bin. Glyphs are rendered by a
+ * {@link GlyphRasterizer} of the rendering thread, and large sets of
+ * characters are rendered in parallel by {@link #renderAll(Collection)}.
+ * Characters the font cannot display would all render alike, usually as
+ * a missing-glyph box, so {@link #renderAll(Collection)} leaves them out.
+ * The font and the glyph resolution of the default cache can be set with
+ * the {@value #FONT_PROPERTY} and {@value #RESOLUTION_PROPERTY} system
+ * properties.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see Glyph
+ * @see CharConverter
+ */
+public class GlyphCache {
+	/**
+	 * The system property holding the directory of the cache file.
+	 */
+	public static final String CACHE_DIR_PROPERTY = "ascii.glyphCacheDir";
+	/**
+	 * The system property holding the font of the default cache.
+	 */
+	public static final String FONT_PROPERTY = "ascii.glyphFont";
+	/**
+	 * The system property holding the glyph resolution of the default cache.
+	 */
+	public static final String RESOLUTION_PROPERTY = "ascii.glyphResolution";
+	private static final int PARALLEL_THRESHOLD = 32;
+	private static final String DEFAULT_CACHE_DIR = ".ascii_art";
+	private static final String FILE_PREFIX = "glyphs-";
+	private static final String FILE_SUFFIX = ".bin";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final int MAGIC = 0x474C5946;
+	private static final int FORMAT_VERSION = 2;
+	private static final String[] FINGERPRINT_PROPERTIES =
+			{"java.vendor", "java.version", "os.name", "os.arch"};
+	private static final String FINGERPRINT_SEPARATOR = "|";
+	private static GlyphCache defaultCache = null;
+	private final int resolution;
+	private final String fontName;
+	private volatile Font font = null;
+	private final String fingerprint;
+	private final Path file;
+	private final ConcurrentHashMap<Character, Glyph> glyphs = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Character, CompletableFuture<Glyph>> rendering = new ConcurrentHashMap<>();
+	private final AtomicBoolean isDirty = new AtomicBoolean();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final ThreadLocal<GlyphRasterizer> rasterizers;
+
+	/**
+	 * Constructs a cache for the given font and glyph resolution,
+	 * loading the glyphs stored by earlier runs, if any.
+	 * @param fontName   The font glyphs are rendered with.
+	 * @param resolution The width and height of the rendered glyphs.
+	 * @param directory  The directory of the cache file.
+	 */
+	public GlyphCache(String fontName, int resolution, Path directory) {
+		this.resolution = resolution;
+		this.fontName = fontName;
+		this.rasterizers = ThreadLocal.withInitial(() -> new GlyphRasterizer(fontName, resolution));
+		StringBuilder fingerprint = new StringBuilder(fontName)
+											.append(FINGERPRINT_SEPARATOR).append(resolution);
+		for (String property : FINGERPRINT_PROPERTIES) {
+			fingerprint.append(FINGERPRINT_SEPARATOR).append(System.getProperty(property));
+		}
+		this.fingerprint = fingerprint.toString();
+		this.file = directory.resolve(FILE_PREFIX
+				+ Integer.toHexString(this.fingerprint.hashCode()) + FILE_SUFFIX);
+		load();
+	}
+
+	/**
+	 * Gets the width and height of the glyphs in this cache.
+	 * @return The resolution of the glyph bitmaps.
+	 */
+	public int getResolution() {
+		return this.resolution;
+	}
+
+	/**
+	 * Gets the cache of the default font and resolution, or of those set
+	 * by the system properties, creating it on the first call.
+	 * @return The default glyph cache.
+	 */
+	public static synchronized GlyphCache getDefault() {
+		if (defaultCache == null) {
+			Path directory = Paths.get(System.getProperty(CACHE_DIR_PROPERTY,
+					Paths.get(System.getProperty("user.home"), DEFAULT_CACHE_DIR).toString()));
+			defaultCache = new GlyphCache(System.getProperty(FONT_PROPERTY, CharConverter.FONT_NAME),
+					Integer.getInteger(RESOLUTION_PROPERTY, CharConverter.DEFAULT_PIXEL_RESOLUTION), directory);
+		}
+		return defaultCache;
+	}
+
+	/**
+	 * Gets the glyph of a character, rendering it if it is not cached.
+	 * @param c The character.
+	 * @return The glyph of the character.
+	 */
+	public Glyph getGlyph(char c) {
+		Glyph glyph = this.glyphs.get(c);
+		if (glyph != null) {
+			this.hits.increment();
+			return glyph;
+		}
+		CompletableFuture<Glyph> future = new CompletableFuture<>();
+		CompletableFuture<Glyph> pending = this.rendering.putIfAbsent(c, future);
+		if (pending != null) {
+			return pending.join();
+		}
+		// The glyph may have been stored since the lookup, by a thread that
+		// then stopped rendering it.
+		glyph = this.glyphs.get(c);
+		if (glyph == null) {
+			this.misses.increment();
+			try {
+				glyph = this.rasterizers.get().rasterize(c);
+			} catch (RuntimeException e) {
+				this.rendering.remove(c);
+				future.completeExceptionally(e);
+				throw e;
+			}
+			this.glyphs.put(c, glyph);
+			this.isDirty.set(true);
+		}
+		// Stored before the future is removed, so a later caller finds either.
+		this.rendering.remove(c);
+		future.complete(glyph);
+		return glyph;
+	}
+
+	/**
+	 * Checks whether the font of this cache can display a character.
+	 * Cached glyphs were displayable when they were rendered, so the font
+	 * is only loaded for characters that are not cached.
+	 * @param c The character.
+	 * @return Whether the font has a glyph for the character.
+	 */
+	public boolean canDisplay(char c) {
+		if (this.glyphs.containsKey(c)) {
+			return true;
+		}
+		Font font = this.font;
+		if (font == null) {
+			font = new Font(this.fontName, Font.PLAIN, this.resolution);
+			this.font = font;
+		}
+		return font.canDisplay(c);
+	}
+
+	/**
+	 * Makes sure every given character that the font can display has a
+	 * glyph, rendering the missing ones in parallel when there are many of
+	 * them.
+	 * @param chars The characters.
+	 * @return The given characters that the font can display, which now all
+	 * have glyphs.
+	 */
+	public List<Character> renderAll(Collection<Character> chars) {
+		List<Character> displayable = chars.stream().filter(this::canDisplay).toList();
+		List<Character> missing = displayable.stream().filter(c -> !this.glyphs.containsKey(c)).toList();
+		if (missing.size() < PARALLEL_THRESHOLD) {
+			missing.forEach(this::getGlyph);
+		} else {
+			missing.parallelStream().forEach(this::getGlyph);
+		}
+		return displayable;
+	}
+
+	/**
+	 * Gets the number of glyphs found in the cache.
+	 * @return The number of hits.
+	 */
+	public long getHits() {
+		return this.hits.sum();
+	}
+
+	/**
+	 * Gets the number of glyphs that had to be rendered.
+	 * @return The number of misses.
+	 */
+	public long getMisses() {
+		return this.misses.sum();
+	}
+
+	/**
+	 * Writes the cache file if glyphs were rendered since it was loaded
+	 * or last saved. The file is replaced atomically, so a concurrent
+	 * reader never sees a partially written cache. Glyphs rendered while
+	 * the file is written are saved by the next call.
+	 * @throws IOException If the cache file cannot be written.
+	 */
+	public synchronized void save() throws IOException {
+		if (!this.isDirty.getAndSet(false)) {
+			return;
+		}
+		try {
+			write();
+		} catch (IOException e) {
+			this.isDirty.set(true);
+			throw e;
+		}
+	}
+
+	private void write() throws IOException {
+		// A copy, so the count written matches the glyphs that follow it.
+		Map<Character, Glyph> glyphs = new HashMap<>(this.glyphs);
+		Files.createDirectories(this.file.getParent());
+		Path temp = this.file.resolveSibling(this.file.getFileName() + TEMP_SUFFIX);
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeUTF(this.fingerprint);
+			out.writeInt(glyphs.size());
+			for (Map.Entry<Character, Glyph> entry : glyphs.entrySet()) {
+				out.writeChar(entry.getKey());
+				out.writeDouble(entry.getValue().getBrightness());
+				for (long word : entry.getValue().getBits()) {
+					out.writeLong(word);
+				}
+			}
+		}
+		Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void load() {
+		if (!Files.isRegularFile(this.file)) {
+			return;
+		}
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(this.file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+						|| !in.readUTF().equals(this.fingerprint)) {
+				return;
+			}
+			int count = in.readInt();
+			Map<Character, Glyph> loaded = new HashMap<>();
+			for (int i = 0; i < count; i++) {
+				char c = in.readChar();
+				double brightness = in.readDouble();
+				long[] bits = new long[Glyph.wordCount(this.resolution)];
+				for (int word = 0; word < bits.length; word++) {
+					bits[word] = in.readLong();
+				}
+				loaded.put(c, new Glyph(this.resolution, bits, brightness));
+			}
+			this.glyphs.putAll(loaded);
+		} catch (IOException e) {
+			// A missing or corrupt cache only means the glyphs are rendered again.
+		}
+	}
+}
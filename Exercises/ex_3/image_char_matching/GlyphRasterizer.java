@@ -0,0 +1,62 @@
+package image_char_matching;
+
+import java.awt.AlphaComposite;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Renders characters into glyphs at the offsets of {@link CharConverter},
+ * on one image and one graphics context that are reused for every
+ * character, instead of new ones per character.
+ * A rasterizer is not thread-safe: every thread rendering glyphs in
+ * parallel uses its own.
+ * @author Rotem Israeli, Nadav Benjamin
+ * @see GlyphCache
+ */
+class GlyphRasterizer {
+	private final int resolution;
+	private final BufferedImage image;
+	private final Graphics2D graphics;
+	private final int[] pixels;
+	private final boolean[][] matrix;
+	private final int xOffset;
+	private final int yOffset;
+
+	/**
+	 * Constructs a rasterizer for the given font and glyph resolution.
+	 * @param fontName   The font glyphs are rendered with.
+	 * @param resolution The width and height of the rendered glyphs.
+	 */
+	GlyphRasterizer(String fontName, int resolution) {
+		this.resolution = resolution;
+		this.image = new BufferedImage(resolution, resolution, BufferedImage.TYPE_INT_ARGB);
+		this.graphics = this.image.createGraphics();
+		this.graphics.setFont(new Font(fontName, Font.PLAIN, resolution));
+		this.pixels = new int[resolution * resolution];
+		this.matrix = new boolean[resolution][resolution];
+		this.xOffset = (int) Math.round(resolution * CharConverter.X_OFFSET_FACTOR);
+		this.yOffset = (int) Math.round(resolution * CharConverter.Y_OFFSET_FACTOR);
+	}
+
+	/**
+	 * Renders a character into its glyph.
+	 * @param c The character.
+	 * @return The glyph of the character.
+	 */
+	Glyph rasterize(char c) {
+		// Clearing to fully transparent restores the image a fresh one starts as.
+		this.graphics.setComposite(AlphaComposite.Clear);
+		this.graphics.fillRect(0, 0, this.resolution, this.resolution);
+		this.graphics.setComposite(AlphaComposite.SrcOver);
+		this.graphics.drawString(Character.toString(c), this.xOffset, this.yOffset);
+		this.image.getRGB(0, 0, this.resolution, this.resolution, this.pixels, 0, this.resolution);
+		for (int y = 0; y < this.resolution; y++) {
+			for (int x = 0; x < this.resolution; x++) {
+				// Untouched pixels, where nothing was drawn, are the white ones.
+				this.matrix[y][x] = this.pixels[y * this.resolution + x] == 0;
+			}
+		}
+		return Glyph.fromBoolArray(this.matrix);
+	}
+}
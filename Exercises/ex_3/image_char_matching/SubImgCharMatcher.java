@@ -5,7 +5,10 @@ import image_char_matching.brightness_rounding_strategies.RoundingStrategy;
 import image_char_matching.brightness_rounding_strategies.RoundingStrategyFactory;
 import image_char_matching.brightness_rounding_strategies.RoundAbs;
 
-import java.util.*;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Handles the matching of characters to image brightness
@@ -15,16 +18,21 @@ import java.util.*;
  * values for use in generating ASCII art.
  * It supports adding/removing characters, normalizing
  * brightness values, and applying different rounding strategies.
+ * Characters can also be matched by shape instead of brightness: a
+ * sub-image thresholded to a bitmap is matched to the glyph with the
+ * fewest differing bits, counted on the packed bitmaps one {@code long}
+ * word at a time.
+ * Matching goes through an immutable {@link CharMatcherSnapshot}, taken
+ * again after the character set or the rounding strategy changes. A
+ * matcher itself is meant for a single thread; threads converting in
+ * parallel share the snapshot returned by {@link #freeze()} instead.
  * @author Rotem Israeli, Nadav Benjamin
  */
 public class SubImgCharMatcher {
-	private static final double INITIAL_MIN_BRIGHTNESS = 1.0;
-	private static final double INITIAL_MAX_BRIGHTNESS = 0.0;
-	private static final int NUM_OF_PIXELS_IN_ARRAY = 256;
-	private static final HashMap<Character, Double> CALCULATED_KEY_BRIGHTNESSES = new HashMap<>();
+	private final GlyphCache glyphCache = GlyphCache.getDefault();
 	private final HashSet<Character> chars;
-	private TreeMap<Double, Character> normalizedChars;
-	private boolean isUpToDate = false;
+	private CharMatcherSnapshot snapshot = null;
+	private long version = 0;
 	private RoundingStrategy roundingStrategy = new RoundAbs();
 
 	/**
@@ -46,25 +54,81 @@ public class SubImgCharMatcher {
 	 * @return The character corresponding to the brightness value.
 	 */
 	public char getCharByImageBrightness(double brightness) {
-		if (!this.isUpToDate) {
-			normalizeGivenCharBrightness();
-		}
-		return this.roundingStrategy.getCharByImageBrightness(brightness, this.normalizedChars);
+		return freeze().getCharByImageBrightness(brightness);
+	}
+
+
+	/**
+	 * Gets the character whose glyph is closest in shape to the given
+	 * bitmap, that is, differs from it in the fewest bits. Ties go to the
+	 * smallest character.
+	 * @param bits A bitmap of {@link #getShapeResolution()} bits per side,
+	 *             packed like the bitmaps of glyphs.
+	 * @return The character whose glyph best matches the bitmap.
+	 * @see Glyph
+	 */
+	public char getCharByImageShape(long[] bits) {
+		return freeze().getCharByImageShape(bits);
+	}
+
+	/**
+	 * Gets the width and height of the bitmaps matched by
+	 * {@link #getCharByImageShape(long[])}.
+	 * @return The resolution of the glyph bitmaps.
+	 */
+	public int getShapeResolution() {
+		return this.glyphCache.getResolution();
 	}
 
+	/**
+	 * Freezes the current character set and rounding strategy into an
+	 * immutable snapshot, which many threads can match with at once.
+	 * The snapshot is reused until the matcher changes.
+	 * @return A snapshot of the current state of the matcher.
+	 */
+	public CharMatcherSnapshot freeze() {
+		if (this.snapshot == null) {
+			this.snapshot = new CharMatcherSnapshot(this.chars, this.roundingStrategy, this.glyphCache,
+					this.version);
+		}
+		return this.snapshot;
+	}
 
 	/**
 	 * Adds a character to the set and updates brightness mappings.
 	 * @param c The character to add.
 	 */
 	public void addChar(char c) {
-		if (!CALCULATED_KEY_BRIGHTNESSES.containsKey(c)) {
-			CALCULATED_KEY_BRIGHTNESSES.put(c, calculateCharBrightnessVal(c));
-		}
+		this.glyphCache.getGlyph(c);
 		this.chars.add(c);
-		this.isUpToDate = false;
+		invalidate();
+	}
+
+
+	/**
+	 * Adds characters to the set, rendering their glyphs in parallel, and
+	 * updates brightness mappings once for all of them. Characters the
+	 * glyph font cannot display are skipped.
+	 * @param chars The characters to add.
+	 * @return The number of characters skipped.
+	 */
+	public int addChars(Collection<Character> chars) {
+		List<Character> displayable = this.glyphCache.renderAll(chars);
+		if (this.chars.addAll(displayable)) {
+			invalidate();
+		}
+		return chars.size() - displayable.size();
 	}
 
+	/**
+	 * Removes characters from the set.
+	 * @param chars The characters to remove.
+	 */
+	public void removeChars(Collection<Character> chars) {
+		if (this.chars.removeAll(chars)) {
+			invalidate();
+		}
+	}
 
 	/**
 	 * Removes a character from the set.
@@ -72,7 +136,7 @@ public class SubImgCharMatcher {
 	 */
 	public void removeChar(char c) {
 		if (this.chars.remove(c)) {
-			this.isUpToDate = false;
+			invalidate();
 		}
 	}
 
@@ -85,6 +149,7 @@ public class SubImgCharMatcher {
 	 */
 	public void changeRoundingStrategy(String newRoundingStrategy) throws RoundingFormatException {
 		this.roundingStrategy = RoundingStrategyFactory.getBrightnessRoundingStrategy(newRoundingStrategy);
+		invalidate();
 	}
 
 	/**
@@ -94,41 +159,19 @@ public class SubImgCharMatcher {
 	public Set<Character> getCharSet() {
 		return this.chars;
 	}
-	
-	private double calculateCharBrightnessVal(char c) {
-		boolean[][] blackWhiteImgOfChar = CharConverter.convertToBoolArray(c);
-		int numOfWhiteCells = 0;
-		for (boolean[] row : blackWhiteImgOfChar) {
-			for (boolean cell : row) {
-				if (cell) {
-					numOfWhiteCells++;
-				}
-			}
-		}
-		return (double) numOfWhiteCells / NUM_OF_PIXELS_IN_ARRAY;
+
+	/**
+	 * Gets a counter that changes whenever the character set or the
+	 * rounding strategy changes, so callers holding characters matched
+	 * earlier can tell whether they are still valid.
+	 * @return The current version of the mapping.
+	 */
+	public long getVersion() {
+		return this.version;
 	}
-	
-	private void normalizeGivenCharBrightness() {
-		TreeMap<Double, Character> newCharsBrightnessMap = new TreeMap<>();
-		double minBrightness = INITIAL_MIN_BRIGHTNESS;
-		double maxBrightness = INITIAL_MAX_BRIGHTNESS;
-		for (Character chr : this.chars) {
-			Double brightness = CALCULATED_KEY_BRIGHTNESSES.get(chr);
-			if (brightness < minBrightness) {
-				minBrightness = brightness;
-			} else if (brightness > maxBrightness) {
-				maxBrightness = brightness;
-			}
-		}
-		for (Character chr : this.chars) {
-			double newCharBrightness = (CALCULATED_KEY_BRIGHTNESSES.get(chr) - minBrightness) /
-											   (maxBrightness - minBrightness);
-			if (!newCharsBrightnessMap.containsKey(newCharBrightness) ||
-						chr < newCharsBrightnessMap.get(newCharBrightness)) {
-				newCharsBrightnessMap.put(newCharBrightness, chr);
-			}
-		}
-		this.normalizedChars = newCharsBrightnessMap;
-		this.isUpToDate = true;
+
+	private void invalidate() {
+		this.snapshot = null;
+		this.version++;
 	}
 }